@@ -0,0 +1,201 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limit on the number of calls a skeleton has in flight, adapted
+ * continuously to the latency of the calls.
+ * <p>
+ * <p>
+ * The limiter compares a short-term average of the latency of calls, from
+ * their arrival to their completion, with a long-term average that tracks the
+ * latency of the server when it is not overloaded. While the two agree, the
+ * limit grows by about its square root, probing for more capacity; when calls
+ * start queueing and the short-term latency rises, the limit shrinks in
+ * proportion. Calls dropped or rejected because the server could not keep up
+ * shrink the limit multiplicatively. Calls arriving while the limit is
+ * reached are rejected right away, so that excess work is turned away before
+ * it builds up a queue.
+ * <p>
+ * <p>
+ * A limiter is installed with <code>Skeleton.setAdaptiveLimiter</code>. Its
+ * getters report its current state.
+ */
+public final class AdaptiveLimiter {
+    public final static int DEFAULT_INITIAL_LIMIT = 20;
+    public final static int DEFAULT_MIN_LIMIT = 4;
+    public final static int DEFAULT_MAX_LIMIT = 1000;
+
+    /**
+     * Factor by which latency may rise above its long-term average before
+     * the limit shrinks.
+     */
+    private final static double TOLERANCE = 1.5;
+    private final static double SHORT_SMOOTHING = 0.1;
+    private final static double LONG_SMOOTHING = 0.005;
+    private final static double LIMIT_SMOOTHING = 0.2;
+    private final static double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    /**
+     * The limit and the latency averages, in nanoseconds, are guarded by the
+     * limiter's lock; the limit is also read without it.
+     */
+    private volatile double limit;
+    private double shortLatency;
+    private double longLatency;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates a limiter with the default limits.
+     */
+    public AdaptiveLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Creates a limiter.
+     *
+     * @param initialLimit The limit before any latency has been measured.
+     * @param minLimit     The lowest limit.
+     * @param maxLimit     The highest limit.
+     * @throws IllegalArgumentException If the limits are not positive or not
+     *                                  in order.
+     */
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Invalid limits");
+        }
+
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Returns the current limit on the number of calls in flight.
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Returns the short-term average latency of calls, in nanoseconds.
+     */
+    public synchronized long getShortLatency() {
+        return (long) shortLatency;
+    }
+
+    /**
+     * Returns the long-term average latency of calls, the estimate of the
+     * latency without queueing, in nanoseconds.
+     */
+    public synchronized long getLongLatency() {
+        return (long) longLatency;
+    }
+
+    /**
+     * Returns the number of calls rejected because the limit was reached.
+     */
+    public long getRejectedCalls() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "limit " + getLimit() + ", " + getInFlight() + " in flight, latency "
+                + getShortLatency() / 1000 + " us (long-term " + getLongLatency() / 1000
+                + " us), " + getRejectedCalls() + " rejected";
+    }
+
+    /**
+     * Admits a call if the limit has not been reached.
+     *
+     * @return <code>false</code> if the call must be rejected.
+     */
+    boolean acquire() {
+        while (true) {
+            int current = inFlight.get();
+
+            if (current >= (int) limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records the completion of a call that took the given time, in
+     * nanoseconds, from its arrival, and adapts the limit.
+     */
+    void release(long latency) {
+        int current = inFlight.getAndDecrement();
+
+        synchronized (this) {
+            if (shortLatency == 0) {
+                shortLatency = latency;
+                longLatency = latency;
+                return;
+            }
+
+            shortLatency += (latency - shortLatency) * SHORT_SMOOTHING;
+            longLatency += (latency - longLatency) * LONG_SMOOTHING;
+
+            // latency has dropped for good: the old average is out of date
+            if (longLatency > 2 * shortLatency) {
+                longLatency = 2 * shortLatency;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+            double target = limit * gradient + Math.sqrt(limit);
+
+            // whether more calls could be served is unknown while they do
+            // not come close to the limit
+            if (target > limit && current < limit / 2) {
+                return;
+            }
+
+            setLimit(limit * (1 - LIMIT_SMOOTHING) + target * LIMIT_SMOOTHING);
+        }
+    }
+
+    /**
+     * Records the end of a call that was not executed, for reasons unrelated
+     * to load.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * Records the end of a call that was dropped or rejected because the
+     * server could not keep up, and shrinks the limit.
+     */
+    void dropped() {
+        inFlight.decrementAndGet();
+
+        synchronized (this) {
+            setLimit(limit * BACKOFF);
+        }
+    }
+
+    private void setLimit(double limit) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+}
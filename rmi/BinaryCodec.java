@@ -0,0 +1,788 @@
+package rmi;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary encoding of <code>RMICallInfo</code> and
+ * <code>RMIResult</code>.
+ * <p>
+ * <p>
+ * A binary payload starts with the protocol version, which never equals the
+ * first byte of a Java serialization stream (<code>0xAC</code>), so that
+ * receivers tell the two encodings apart frame by frame. Calls then carry a
+ * kind byte, the request id as a variable-length integer, the numeric method
+ * id and the arguments; results carry the request id, the returned value and
+ * the exception.
+ * <p>
+ * <p>
+ * Arguments are written according to the parameter types of the method,
+ * which both sides know from the method id: primitives take their fixed
+ * width and primitive arrays their length followed by the raw elements,
+ * without any tag. Other values, including results, whose type an
+ * asynchronous stub does not know, are written with a one-byte tag.
+ * Primitives, strings, arrays and the common collection classes have their
+ * own compact encodings; any other value is embedded as a Java serialization
+ * stream, so every <code>Serializable</code> object can still be sent.
+ * Within a message, an object other than a string or a boxed primitive that
+ * appears again is written as a reference to its first occurrence, so that
+ * shared objects are not duplicated and cyclic ones can be sent. Only
+ * primitive arrays passed directly as arguments, which carry no tag, are
+ * written in full every time.
+ * <p>
+ * <p>
+ * <code>BulkData</code> values are written as their size only. Their bytes
+ * follow the frame as attachments, in the order in which the values appear,
+ * so that they are never copied into the payload. Calls end with the sizes
+ * of their attachments, and give the length of their arguments, so that a
+ * skeleton that does not know the method can skip both.
+ */
+class BinaryCodec {
+    /**
+     * Version of the binary protocol, sent as the first byte of every binary
+     * payload and offered by stubs when they connect. Peers speaking
+     * version 3 also accept compressed frames; since version 4, calls carry
+     * their timeout, and since version 5 the length of their arguments and
+     * the sizes of their attachments, and repeated objects are references.
+     */
+    final static int VERSION = 5;
+
+    private final static int KIND_CALL = 1;
+    private final static int KIND_RESULT = 2;
+
+    private final static int NULL = 0;
+    private final static int TRUE = 1;
+    private final static int FALSE = 2;
+    private final static int BYTE = 3;
+    private final static int SHORT = 4;
+    private final static int CHAR = 5;
+    private final static int INT = 6;
+    private final static int LONG = 7;
+    private final static int FLOAT = 8;
+    private final static int DOUBLE = 9;
+    private final static int STRING = 10;
+    private final static int BYTE_ARRAY = 11;
+    private final static int INT_ARRAY = 12;
+    private final static int LONG_ARRAY = 13;
+    private final static int DOUBLE_ARRAY = 14;
+    private final static int STRING_ARRAY = 15;
+    private final static int OBJECT_ARRAY = 16;
+    private final static int ARRAY_LIST = 17;
+    private final static int HASH_MAP = 18;
+    private final static int LINKED_HASH_MAP = 19;
+    private final static int HASH_SET = 20;
+    private final static int SERIALIZED = 21;
+    private final static int BOOLEAN_ARRAY = 22;
+    private final static int SHORT_ARRAY = 23;
+    private final static int CHAR_ARRAY = 24;
+    private final static int FLOAT_ARRAY = 25;
+    private final static int BULK_DATA = 26;
+    private final static int REFERENCE = 27;
+
+    /**
+     * Output collecting the bulk data attached to the message being written.
+     */
+    static class Output extends DataOutputStream {
+        final List<BulkData> attachments = new ArrayList<BulkData>();
+        private final Frames.Buffer frame;
+
+        /**
+         * Objects written so far, by identity, with their reference numbers,
+         * or <code>null</code> before the first one.
+         */
+        private Map<Object, Integer> references;
+
+        Output(Frames.Buffer frame) {
+            super(frame);
+            this.frame = frame;
+        }
+
+        /**
+         * Writes a placeholder for a length, returning its position.
+         */
+        int reserveLength() throws IOException {
+            int position = frame.size();
+            writeInt(0);
+            return position;
+        }
+
+        /**
+         * Sets the length reserved at a position to the number of bytes
+         * written after it.
+         */
+        void writeLength(int position) {
+            int length = frame.size() - position - 4;
+            byte[] bytes = frame.array();
+            bytes[position] = (byte) (length >>> 24);
+            bytes[position + 1] = (byte) (length >>> 16);
+            bytes[position + 2] = (byte) (length >>> 8);
+            bytes[position + 3] = (byte) length;
+        }
+    }
+
+    /**
+     * Input collecting the bulk data whose bytes follow the message being
+     * read.
+     */
+    static class Input extends DataInputStream {
+        final List<BulkData> attachments = new ArrayList<BulkData>();
+
+        /**
+         * Objects read so far, in the order of their reference numbers, or
+         * <code>null</code> before the first one.
+         */
+        private List<Object> references;
+
+        Input(InputStream input) {
+            super(input);
+        }
+    }
+
+    /**
+     * Checks whether a payload holds a binary message rather than a Java
+     * serialization stream.
+     */
+    static boolean isBinary(byte[] payload, int offset, int length) {
+        return length > 0 && payload[offset] == VERSION;
+    }
+
+    /**
+     * Writes a call, which must have been created for a <code>Method</code>,
+     * so that its parameter types are known.
+     */
+    static void writeCall(Output output, RMICallInfo info) throws IOException {
+        output.writeByte(VERSION);
+        output.writeByte(KIND_CALL);
+        writeVarLong(output, info.requestId);
+        output.writeLong(info.methodHash);
+        writeVarLong(output, info.timeout);
+        writeVarLong(output, info.args == null ? 0 : info.args.length + 1);
+        int start = output.reserveLength();
+
+        if (info.args != null) {
+            for (int i = 0; i < info.args.length; i++) {
+                writeTyped(output, info.parameterTypes[i], info.args[i]);
+            }
+        }
+
+        output.writeLength(start);
+        writeVarLong(output, output.attachments.size());
+
+        for (BulkData data : output.attachments) {
+            writeVarLong(output, data.size());
+        }
+    }
+
+    static void writeResult(Output output, RMIResult result) throws IOException {
+        output.writeByte(VERSION);
+        output.writeByte(KIND_RESULT);
+        writeVarLong(output, result.requestId);
+        writeValue(output, result.value);
+        writeValue(output, result.exception);
+    }
+
+    /**
+     * Reads a binary call or result, after the version byte.
+     *
+     * @param methods Methods of the skeleton by numeric id, whose parameter
+     *                types direct the decoding of call arguments. The
+     *                arguments of calls to unknown methods are skipped, and
+     *                their attachments are read to be discarded.
+     */
+    static Object read(Input input, Map<Long, MethodInvoker> methods)
+    throws IOException, ClassNotFoundException {
+        int kind = input.readUnsignedByte();
+
+        if (kind == KIND_CALL) {
+            RMICallInfo info = new RMICallInfo(null, (String) null, null);
+            info.requestId = readVarLong(input);
+            info.methodHash = input.readLong();
+            info.timeout = readVarLong(input);
+            info.binary = true;
+
+            int count = (int) readVarLong(input) - 1;
+            int length = input.readInt();
+            MethodInvoker method = methods == null ? null : methods.get(info.methodHash);
+
+            if (length < 0 || length > input.available()) {
+                throw new StreamCorruptedException("Invalid length: " + length);
+            }
+
+            // the skeleton answers calls to unknown methods with an error
+            if (count < 0 || method == null) {
+                input.skipBytes(length);
+                readAttachments(input, false);
+                return info;
+            }
+
+            if (count != method.parameterTypes.length) {
+                throw new StreamCorruptedException("Wrong number of arguments: " + count);
+            }
+
+            info.args = new Object[count];
+
+            for (int i = 0; i < count; i++) {
+                info.args[i] = readTyped(input, method.parameterTypes[i]);
+            }
+
+            readAttachments(input, true);
+            return info;
+        }
+
+        if (kind == KIND_RESULT) {
+            RMIResult result = new RMIResult();
+            result.requestId = readVarLong(input);
+            result.value = readValue(input);
+            result.exception = (Exception) readValue(input);
+            result.binary = true;
+            return result;
+        }
+
+        throw new StreamCorruptedException("Unknown message kind: " + kind);
+    }
+
+    /**
+     * Reads the sizes of the attachments that end a call.
+     *
+     * @param decoded Whether the arguments were decoded, in which case the
+     *                attachments are already known and the sizes are
+     *                checked against them. Otherwise they are allocated.
+     */
+    private static void readAttachments(Input input, boolean decoded) throws IOException {
+        int count = readLength(input);
+
+        if (decoded && count != input.attachments.size()) {
+            throw new StreamCorruptedException("Wrong number of attachments: " + count);
+        }
+
+        for (int i = 0; i < count; i++) {
+            long size = readVarLong(input);
+
+            if (!decoded) {
+                input.attachments.add(BulkData.allocate(size));
+            } else if (input.attachments.get(i).size() != size) {
+                throw new StreamCorruptedException("Wrong attachment size: " + size);
+            }
+        }
+    }
+
+    /**
+     * Writes a value of a declared type. Primitives and primitive arrays are
+     * written without a tag.
+     */
+    static void writeTyped(Output output, Class<?> type, Object value) throws IOException {
+        if (type.isPrimitive()) {
+            writePrimitive(output, type, value);
+        } else if (type.isArray() && type.getComponentType().isPrimitive()) {
+            if (value == null) {
+                writeVarLong(output, 0);
+            } else {
+                writeVarLong(output, Array.getLength(value) + 1);
+                writeElements(output, type.getComponentType(), value);
+            }
+        } else {
+            writeValue(output, value);
+        }
+    }
+
+    static Object readTyped(Input input, Class<?> type)
+    throws IOException, ClassNotFoundException {
+        if (type.isPrimitive()) {
+            return readPrimitive(input, type);
+        } else if (type.isArray() && type.getComponentType().isPrimitive()) {
+            int length = readLength(input) - 1;
+            return length < 0 ? null : readElements(input, type.getComponentType(), length);
+        } else {
+            return readValue(input);
+        }
+    }
+
+    private static void writePrimitive(Output output, Class<?> type, Object value)
+    throws IOException {
+        if (type == int.class) {
+            output.writeInt((Integer) value);
+        } else if (type == long.class) {
+            output.writeLong((Long) value);
+        } else if (type == double.class) {
+            output.writeDouble((Double) value);
+        } else if (type == boolean.class) {
+            output.writeBoolean((Boolean) value);
+        } else if (type == float.class) {
+            output.writeFloat((Float) value);
+        } else if (type == byte.class) {
+            output.writeByte((Byte) value);
+        } else if (type == short.class) {
+            output.writeShort((Short) value);
+        } else {
+            output.writeChar((Character) value);
+        }
+    }
+
+    private static Object readPrimitive(Input input, Class<?> type) throws IOException {
+        if (type == int.class) {
+            return input.readInt();
+        } else if (type == long.class) {
+            return input.readLong();
+        } else if (type == double.class) {
+            return input.readDouble();
+        } else if (type == boolean.class) {
+            return input.readBoolean();
+        } else if (type == float.class) {
+            return input.readFloat();
+        } else if (type == byte.class) {
+            return input.readByte();
+        } else if (type == short.class) {
+            return input.readShort();
+        } else {
+            return input.readChar();
+        }
+    }
+
+    /**
+     * Writes the elements of a primitive array, in big-endian order, with a
+     * single bulk copy.
+     */
+    private static void writeElements(Output output, Class<?> component, Object array)
+    throws IOException {
+        if (component == byte.class) {
+            output.write((byte[]) array);
+        } else if (component == boolean.class) {
+            for (boolean element : (boolean[]) array) {
+                output.writeBoolean(element);
+            }
+        } else if (component == int.class) {
+            int[] elements = (int[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 4);
+            bytes.asIntBuffer().put(elements);
+            output.write(bytes.array());
+        } else if (component == long.class) {
+            long[] elements = (long[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 8);
+            bytes.asLongBuffer().put(elements);
+            output.write(bytes.array());
+        } else if (component == double.class) {
+            double[] elements = (double[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 8);
+            bytes.asDoubleBuffer().put(elements);
+            output.write(bytes.array());
+        } else if (component == float.class) {
+            float[] elements = (float[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 4);
+            bytes.asFloatBuffer().put(elements);
+            output.write(bytes.array());
+        } else if (component == short.class) {
+            short[] elements = (short[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 2);
+            bytes.asShortBuffer().put(elements);
+            output.write(bytes.array());
+        } else {
+            char[] elements = (char[]) array;
+            ByteBuffer bytes = ByteBuffer.allocate(elements.length * 2);
+            bytes.asCharBuffer().put(elements);
+            output.write(bytes.array());
+        }
+    }
+
+    private static Object readElements(Input input, Class<?> component, int length)
+    throws IOException {
+        if (component == byte.class) {
+            byte[] elements = new byte[length];
+            input.readFully(elements);
+            return elements;
+        } else if (component == boolean.class) {
+            boolean[] elements = new boolean[length];
+
+            for (int i = 0; i < length; i++) {
+                elements[i] = input.readBoolean();
+            }
+
+            return elements;
+        } else if (component == int.class) {
+            int[] elements = new int[length];
+            readBytes(input, length * 4L).asIntBuffer().get(elements);
+            return elements;
+        } else if (component == long.class) {
+            long[] elements = new long[length];
+            readBytes(input, length * 8L).asLongBuffer().get(elements);
+            return elements;
+        } else if (component == double.class) {
+            double[] elements = new double[length];
+            readBytes(input, length * 8L).asDoubleBuffer().get(elements);
+            return elements;
+        } else if (component == float.class) {
+            float[] elements = new float[length];
+            readBytes(input, length * 4L).asFloatBuffer().get(elements);
+            return elements;
+        } else if (component == short.class) {
+            short[] elements = new short[length];
+            readBytes(input, length * 2L).asShortBuffer().get(elements);
+            return elements;
+        } else {
+            char[] elements = new char[length];
+            readBytes(input, length * 2L).asCharBuffer().get(elements);
+            return elements;
+        }
+    }
+
+    private static ByteBuffer readBytes(Input input, long length) throws IOException {
+        if (length > Frames.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid length: " + length);
+        }
+
+        byte[] bytes = new byte[(int) length];
+        input.readFully(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    static void writeValue(Output output, Object value) throws IOException {
+        if (value == null) {
+            output.writeByte(NULL);
+            return;
+        }
+
+        Class<?> c = value.getClass();
+
+        if (c == String.class) {
+            output.writeByte(STRING);
+            writeString(output, (String) value);
+        } else if (c == Integer.class) {
+            output.writeByte(INT);
+            output.writeInt((Integer) value);
+        } else if (c == Long.class) {
+            output.writeByte(LONG);
+            output.writeLong((Long) value);
+        } else if (c == Boolean.class) {
+            output.writeByte((Boolean) value ? TRUE : FALSE);
+        } else if (c == Double.class) {
+            output.writeByte(DOUBLE);
+            output.writeDouble((Double) value);
+        } else if (c == Float.class) {
+            output.writeByte(FLOAT);
+            output.writeFloat((Float) value);
+        } else if (c == Byte.class) {
+            output.writeByte(BYTE);
+            output.writeByte((Byte) value);
+        } else if (c == Short.class) {
+            output.writeByte(SHORT);
+            output.writeShort((Short) value);
+        } else if (c == Character.class) {
+            output.writeByte(CHAR);
+            output.writeChar((Character) value);
+        } else {
+            writeObject(output, value);
+        }
+    }
+
+    /**
+     * Writes a value that has an identity, as a reference if it was already
+     * written in the same message.
+     */
+    private static void writeObject(Output output, Object value) throws IOException {
+        if (output.references == null) {
+            output.references = new IdentityHashMap<Object, Integer>();
+        }
+
+        Integer reference = output.references.get(value);
+
+        if (reference != null) {
+            output.writeByte(REFERENCE);
+            writeVarLong(output, reference);
+            return;
+        }
+
+        // numbered before its elements, which may refer back to it
+        output.references.put(value, output.references.size());
+        Class<?> c = value.getClass();
+
+        if (c.isArray() && c.getComponentType().isPrimitive()) {
+            output.writeByte(arrayTag(c.getComponentType()));
+            writeVarLong(output, Array.getLength(value));
+            writeElements(output, c.getComponentType(), value);
+        } else if (c == BulkData.class) {
+            BulkData data = (BulkData) value;
+            output.writeByte(BULK_DATA);
+            writeVarLong(output, data.size());
+            output.attachments.add(data);
+        } else if (c == String[].class) {
+            String[] array = (String[]) value;
+            output.writeByte(STRING_ARRAY);
+            writeVarLong(output, array.length);
+
+            for (String element : array) {
+                writeValue(output, element);
+            }
+        } else if (c == Object[].class) {
+            Object[] array = (Object[]) value;
+            output.writeByte(OBJECT_ARRAY);
+            writeVarLong(output, array.length);
+
+            for (Object element : array) {
+                writeValue(output, element);
+            }
+        } else if (c == ArrayList.class) {
+            output.writeByte(ARRAY_LIST);
+            writeElements(output, (Collection<?>) value);
+        } else if (c == HashSet.class) {
+            output.writeByte(HASH_SET);
+            writeElements(output, (Collection<?>) value);
+        } else if (c == HashMap.class) {
+            output.writeByte(HASH_MAP);
+            writeEntries(output, (Map<?, ?>) value);
+        } else if (c == LinkedHashMap.class) {
+            output.writeByte(LINKED_HASH_MAP);
+            writeEntries(output, (Map<?, ?>) value);
+        } else {
+            output.writeByte(SERIALIZED);
+            writeSerialized(output, value);
+        }
+    }
+
+    static Object readValue(Input input) throws IOException, ClassNotFoundException {
+        int tag = input.readUnsignedByte();
+
+        switch (tag) {
+            case NULL:
+                return null;
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return input.readByte();
+            case SHORT:
+                return input.readShort();
+            case CHAR:
+                return input.readChar();
+            case INT:
+                return input.readInt();
+            case LONG:
+                return input.readLong();
+            case FLOAT:
+                return input.readFloat();
+            case DOUBLE:
+                return input.readDouble();
+            case STRING:
+                return readString(input);
+            case BOOLEAN_ARRAY:
+                return register(input, readElements(input, boolean.class, readLength(input)));
+            case BYTE_ARRAY:
+                return register(input, readElements(input, byte.class, readLength(input)));
+            case SHORT_ARRAY:
+                return register(input, readElements(input, short.class, readLength(input)));
+            case CHAR_ARRAY:
+                return register(input, readElements(input, char.class, readLength(input)));
+            case INT_ARRAY:
+                return register(input, readElements(input, int.class, readLength(input)));
+            case LONG_ARRAY:
+                return register(input, readElements(input, long.class, readLength(input)));
+            case FLOAT_ARRAY:
+                return register(input, readElements(input, float.class, readLength(input)));
+            case DOUBLE_ARRAY:
+                return register(input, readElements(input, double.class, readLength(input)));
+            case STRING_ARRAY: {
+                String[] array = register(input, new String[readLength(input)]);
+
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (String) readValue(input);
+                }
+
+                return array;
+            }
+            case OBJECT_ARRAY: {
+                Object[] array = register(input, new Object[readLength(input)]);
+
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(input);
+                }
+
+                return array;
+            }
+            case ARRAY_LIST: {
+                int size = readLength(input);
+                return readElements(input, register(input, new ArrayList<Object>(size)), size);
+            }
+            case HASH_SET: {
+                int size = readLength(input);
+                return readElements(input, register(input, new HashSet<Object>(capacity(size))), size);
+            }
+            case HASH_MAP: {
+                int size = readLength(input);
+                return readEntries(input, register(input, new HashMap<Object, Object>(capacity(size))),
+                        size);
+            }
+            case LINKED_HASH_MAP: {
+                int size = readLength(input);
+                return readEntries(input,
+                        register(input, new LinkedHashMap<Object, Object>(capacity(size))), size);
+            }
+            case SERIALIZED:
+                return register(input, readSerialized(input));
+            case BULK_DATA: {
+                BulkData data = BulkData.allocate(readVarLong(input));
+                input.attachments.add(data);
+                return register(input, data);
+            }
+            case REFERENCE: {
+                long reference = readVarLong(input);
+
+                if (input.references == null || reference < 0 || reference >= input.references.size()) {
+                    throw new StreamCorruptedException("Invalid reference: " + reference);
+                }
+
+                return input.references.get((int) reference);
+            }
+            default:
+                throw new StreamCorruptedException("Unknown value tag: " + tag);
+        }
+    }
+
+    /**
+     * Numbers an object read from a message, in the order in which the writer
+     * numbered it, so that later references can find it.
+     */
+    private static <T> T register(Input input, T value) {
+        if (input.references == null) {
+            input.references = new ArrayList<Object>();
+        }
+
+        input.references.add(value);
+        return value;
+    }
+
+    private static int arrayTag(Class<?> component) {
+        if (component == byte.class) {
+            return BYTE_ARRAY;
+        } else if (component == int.class) {
+            return INT_ARRAY;
+        } else if (component == long.class) {
+            return LONG_ARRAY;
+        } else if (component == double.class) {
+            return DOUBLE_ARRAY;
+        } else if (component == boolean.class) {
+            return BOOLEAN_ARRAY;
+        } else if (component == short.class) {
+            return SHORT_ARRAY;
+        } else if (component == char.class) {
+            return CHAR_ARRAY;
+        } else {
+            return FLOAT_ARRAY;
+        }
+    }
+
+    private static void writeElements(Output output, Collection<?> elements)
+    throws IOException {
+        writeVarLong(output, elements.size());
+
+        for (Object element : elements) {
+            writeValue(output, element);
+        }
+    }
+
+    private static Collection<Object> readElements(Input input,
+                                                   Collection<Object> elements, int size)
+    throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            elements.add(readValue(input));
+        }
+
+        return elements;
+    }
+
+    private static void writeEntries(Output output, Map<?, ?> entries)
+    throws IOException {
+        writeVarLong(output, entries.size());
+
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            writeValue(output, entry.getKey());
+            writeValue(output, entry.getValue());
+        }
+    }
+
+    private static Map<Object, Object> readEntries(Input input,
+                                                   Map<Object, Object> entries, int size)
+    throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            Object key = readValue(input);
+            entries.put(key, readValue(input));
+        }
+
+        return entries;
+    }
+
+    private static void writeSerialized(Output output, Object value) throws IOException {
+        Frames.Buffer bytes = new Frames.Buffer();
+        ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        stream.writeObject(value);
+        stream.close();
+
+        writeVarLong(output, bytes.size());
+        output.write(bytes.array(), 0, bytes.size());
+    }
+
+    private static Object readSerialized(Input input)
+    throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[readLength(input)];
+        input.readFully(bytes);
+        return Frames.decodeSerialized(bytes, 0, bytes.length);
+    }
+
+    private static void writeString(Output output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(Input input) throws IOException {
+        byte[] bytes = new byte[readLength(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a length, which cannot exceed the frame holding it.
+     */
+    private static int readLength(Input input) throws IOException {
+        long length = readVarLong(input);
+
+        if (length < 0 || length > Frames.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid length: " + length);
+        }
+
+        return (int) length;
+    }
+
+    private static int capacity(int size) {
+        return Math.max(16, (int) (size / 0.75f) + 1);
+    }
+
+    /**
+     * Writes an unsigned integer in seven-bit groups, least significant
+     * first, so that small values take a single byte.
+     */
+    static void writeVarLong(Output output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        output.writeByte((int) value);
+    }
+
+    static long readVarLong(Input input) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new StreamCorruptedException("Malformed variable-length integer");
+    }
+}
@@ -0,0 +1,328 @@
+package rmi;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Block of bytes passed to or returned from a remote method without being
+ * copied through Java serialization.
+ * <p>
+ * <p>
+ * Bulk data is backed either by a <code>ByteBuffer</code>, which may be a
+ * direct buffer, or by a region of a file. When the stub and the skeleton
+ * speak the binary protocol, the bytes travel right after the frame of the
+ * call or result that refers to them: buffers are written to the socket
+ * channel as they are, file regions with <code>FileChannel.transferTo</code>,
+ * which lets the operating system send the file without it ever entering the
+ * heap. The receiver reads the bytes straight into the buffer of the bulk data
+ * object it hands to the remote method or to the caller. Over connections
+ * using Java serialization, bulk data is serialized like any other value.
+ * <p>
+ * <p>
+ * Received bytes go to heap buffers of the exact size, unless the receiver
+ * supplies its own buffers, for example direct ones taken from a pool, with
+ * an <code>Allocator</code> given to <code>Stub.setBulkAllocator</code> or
+ * <code>Skeleton.setBulkAllocator</code>. The NIO skeleton engine reads from
+ * the socket channel into them. Stub connections and the blocking skeleton
+ * engine read and write through socket streams: they read straight into
+ * heap buffers but copy through a small chunk into direct ones, and the
+ * blocking engine also sends bulk data through a chunk.
+ * <p>
+ * <p>
+ * Buffers are not copied when bulk data is created, so they must not be
+ * modified until the call has been sent or the result returned. Files are
+ * opened only when the bytes are sent.
+ */
+public final class BulkData implements Serializable {
+    private static final long serialVersionUID = -7465201752692359200L;
+
+    /**
+     * Largest block that can be received.
+     */
+    public final static long MAX_SIZE = 1L << 30;
+
+    private final static int COPY_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Supplies the buffers into which received bulk data is read.
+     */
+    public interface Allocator {
+        /**
+         * Returns a buffer with at least <code>size</code> bytes remaining,
+         * into which the next <code>size</code> bytes received are read, or
+         * <code>null</code> to read them into a new heap buffer. Called by
+         * the thread reading the connection, so it should not block.
+         */
+        ByteBuffer allocate(int size);
+    }
+
+    private transient ByteBuffer buffer;
+    private transient Path path;
+    private transient long position;
+    private transient long count;
+
+    private BulkData(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.remaining();
+    }
+
+    private BulkData(long count) {
+        this.count = count;
+    }
+
+    private BulkData(Path path, long position, long count) {
+        this.path = path;
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Creates bulk data holding the bytes of an array, without copying them.
+     *
+     * @throws NullPointerException If <code>bytes</code> is <code>null</code>.
+     */
+    public static BulkData wrap(byte[] bytes) {
+        return wrap(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Creates bulk data holding the remaining bytes of a buffer, without
+     * copying them. The position of the buffer is not changed.
+     *
+     * @throws NullPointerException If <code>buffer</code> is <code>null</code>.
+     */
+    public static BulkData wrap(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException("Buffer is required");
+        }
+
+        return new BulkData(buffer.slice());
+    }
+
+    /**
+     * Creates bulk data holding a whole file.
+     *
+     * @throws IOException If the size of the file cannot be determined.
+     */
+    public static BulkData fromFile(Path path) throws IOException {
+        return fromFile(path, 0, Files.size(path));
+    }
+
+    /**
+     * Creates bulk data holding a region of a file.
+     *
+     * @param path     The file.
+     * @param position The offset of the region in the file.
+     * @param count    The length of the region.
+     * @throws NullPointerException     If <code>path</code> is <code>null</code>.
+     * @throws IllegalArgumentException If the region is invalid.
+     */
+    public static BulkData fromFile(Path path, long position, long count) {
+        if (path == null) {
+            throw new NullPointerException("Path is required");
+        }
+
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid file region");
+        }
+
+        return new BulkData(path, position, count);
+    }
+
+    /**
+     * Returns the number of bytes.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns a read-only buffer holding the bytes. File regions are mapped
+     * into memory rather than read.
+     *
+     * @throws IOException If the file cannot be mapped.
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if (buffer != null) {
+            return buffer.asReadOnlyBuffer();
+        }
+
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            return file.map(FileChannel.MapMode.READ_ONLY, position, count);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Copies the bytes into a new array.
+     *
+     * @throws IOException If a file region cannot be read.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IOException("Bulk data is too large for an array");
+        }
+
+        byte[] bytes = new byte[(int) count];
+        asByteBuffer().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes all the bytes to a channel, such as a file being received. File
+     * regions are transferred with <code>FileChannel.transferTo</code>.
+     *
+     * @return The number of bytes written.
+     * @throws IOException If the bytes cannot be read or written.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        Transfer transfer = transfer();
+
+        try {
+            while (!transfer.isDone()) {
+                transfer.writeTo(target);
+            }
+        } finally {
+            transfer.close();
+        }
+
+        return count;
+    }
+
+    /**
+     * Starts writing the bytes, opening the file of a file region until
+     * <code>close</code> is called.
+     */
+    Transfer transfer() throws IOException {
+        return new Transfer(path == null ? null : FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Creates bulk data of the given size whose bytes are still to be read
+     * from a connection, into a buffer chosen when the reading starts.
+     *
+     * @throws StreamCorruptedException If the size is invalid.
+     */
+    static BulkData allocate(long size) throws StreamCorruptedException {
+        if (size < 0 || size > MAX_SIZE) {
+            throw new StreamCorruptedException("Invalid bulk data size: " + size);
+        }
+
+        return new BulkData(size);
+    }
+
+    /**
+     * Returns a buffer into which the bytes of received bulk data are read,
+     * taking it from the allocator the first time. Reading into it leaves
+     * the data itself unchanged.
+     *
+     * @param allocator The allocator of the receiver, or <code>null</code>
+     *                  to read into a heap buffer.
+     * @throws IOException If the allocator returns a buffer that is too
+     *                     small.
+     */
+    ByteBuffer target(Allocator allocator) throws IOException {
+        if (buffer == null) {
+            ByteBuffer target = allocator == null ? null : allocator.allocate((int) count);
+
+            if (target == null) {
+                target = ByteBuffer.allocate((int) count);
+            } else if (target.remaining() < count) {
+                throw new IOException("Buffer for " + count + " bytes of bulk data has only "
+                        + target.remaining() + " bytes remaining");
+            }
+
+            target = target.slice();
+            target.limit((int) count);
+            buffer = target;
+        }
+
+        return buffer.duplicate();
+    }
+
+    /**
+     * Bytes of bulk data being written, possibly over several calls when the
+     * target channel is non-blocking.
+     */
+    final class Transfer implements Closeable {
+        private final FileChannel file;
+        private long written;
+
+        private Transfer(FileChannel file) {
+            this.file = file;
+        }
+
+        boolean isDone() {
+            return written >= count;
+        }
+
+        /**
+         * Writes as many of the remaining bytes as the channel accepts.
+         * Non-blocking channels may accept only some of the bytes, or none.
+         *
+         * @return The number of bytes written.
+         */
+        long writeTo(WritableByteChannel target) throws IOException {
+            long transferred;
+
+            if (file == null) {
+                ByteBuffer remaining = buffer.duplicate();
+                remaining.position((int) written);
+                transferred = target.write(remaining);
+            } else {
+                transferred = file.transferTo(position + written, count - written, target);
+
+                if (transferred == 0 && position + written >= file.size()) {
+                    throw new EOFException("File is shorter than the bulk data region");
+                }
+            }
+
+            written += transferred;
+            return transferred;
+        }
+
+        public void close() throws IOException {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+        output.writeLong(count);
+
+        ByteBuffer source = asByteBuffer();
+        byte[] chunk = new byte[(int) Math.min(count, COPY_CHUNK_SIZE)];
+
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            output.write(chunk, 0, length);
+        }
+    }
+
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+
+        long size = input.readLong();
+
+        if (size < 0 || size > MAX_SIZE) {
+            throw new StreamCorruptedException("Invalid bulk data size: " + size);
+        }
+
+        byte[] bytes = new byte[(int) size];
+        input.readFully(bytes);
+
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.count = size;
+    }
+}
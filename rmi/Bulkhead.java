@@ -0,0 +1,138 @@
+package rmi;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency limit of a skeleton for one method, or for a group of methods
+ * sharing the limit, with counters of the calls it admitted and rejected.
+ * <p>
+ * <p>
+ * Calls beyond the limit are parked in the bulkhead rather than in the
+ * service pool, so that they hold no service thread while they wait.
+ */
+public final class Bulkhead {
+    /**
+     * Outcome of the admission of a call.
+     */
+    enum Admission {
+        /**
+         * The call may be executed now.
+         */
+        START,
+
+        /**
+         * The call has been parked, and is returned by <code>release</code>
+         * when it may be executed.
+         */
+        QUEUED,
+
+        /**
+         * The limit and the queue are full.
+         */
+        REJECTED
+    }
+
+    private final int maxConcurrent;
+    private final int maxQueued;
+
+    /**
+     * Parked calls, and the number of calls admitted and not yet released,
+     * are guarded by the bulkhead's lock.
+     */
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<Runnable>();
+    private int active;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    Bulkhead(int maxConcurrent, int maxQueued) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Returns the maximum number of calls executed concurrently.
+     */
+    public int getMaxConcurrentCalls() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Returns the maximum number of calls waiting for the others.
+     */
+    public int getMaxQueuedCalls() {
+        return maxQueued;
+    }
+
+    /**
+     * Returns the number of calls admitted and not yet completed.
+     */
+    public synchronized int getActiveCalls() {
+        return active;
+    }
+
+    /**
+     * Returns the number of calls waiting for the others.
+     */
+    public synchronized int getQueuedCalls() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns the number of calls completed after being admitted.
+     */
+    public long getCompletedCalls() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of calls rejected because the limit and the queue
+     * were full.
+     */
+    public long getRejectedCalls() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return getActiveCalls() + "/" + maxConcurrent + " active, " + getQueuedCalls() + "/"
+                + maxQueued + " queued, " + getCompletedCalls() + " completed, "
+                + getRejectedCalls() + " rejected";
+    }
+
+    /**
+     * Admits a call, parking it if the limit is reached.
+     */
+    synchronized Admission admit(Runnable call) {
+        if (active < maxConcurrent) {
+            active++;
+            return Admission.START;
+        }
+
+        if (waiting.size() < maxQueued) {
+            waiting.add(call);
+            return Admission.QUEUED;
+        }
+
+        rejected.incrementAndGet();
+        return Admission.REJECTED;
+    }
+
+    /**
+     * Records the completion of an admitted call.
+     *
+     * @return The parked call that may now be executed in its place, or
+     * <code>null</code>.
+     */
+    synchronized Runnable release() {
+        completed.incrementAndGet();
+        Runnable next = waiting.poll();
+
+        if (next == null) {
+            active--;
+        }
+
+        return next;
+    }
+}
@@ -0,0 +1,75 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the results of <code>Cacheable</code> methods served by stubs
+ * connecting to a remote address.
+ */
+public final class CacheStatistics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Returns the number of calls answered from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of calls to cacheable methods sent to the server.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of results removed to make room for others.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of results removed because their time to live had
+     * passed.
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * Returns the fraction of calls answered from the cache, or 0 if there
+     * were no calls.
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return getHits() + " hits, " + getMisses() + " misses, " + getEvictions()
+                + " evictions, " + getExpirations() + " expirations";
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    void expired() {
+        expirations.incrementAndGet();
+    }
+}
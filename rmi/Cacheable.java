@@ -0,0 +1,40 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a remote interface whose results may be cached by stubs.
+ * <p>
+ * <p>
+ * The method must be a pure lookup: calling it again with equal arguments
+ * must return an equal value, for as long as the result is cached. Stubs then
+ * answer repeated calls with equal arguments from a local cache instead of
+ * calling the server. Arguments are compared with
+ * <code>Arrays.deepEquals</code>. Only values are cached, not exceptions, and
+ * the same cached object is returned to every caller, so callers must not
+ * modify it.
+ * <p>
+ * <p>
+ * The cache is shared by all stubs, synchronous and asynchronous, connecting
+ * to the same address, and can be observed with
+ * <code>Stub.getCacheStatistics</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable {
+    /**
+     * Time in milliseconds for which a result is served from the cache.
+     */
+    long ttl() default 60000;
+
+    /**
+     * Largest number of results cached for the method. When the cache is
+     * full, results that have not been used recently are evicted first.
+     */
+    int maxEntries() default 1000;
+}
@@ -0,0 +1,35 @@
+package rmi;
+
+import java.util.Arrays;
+
+/**
+ * Method and arguments of a call, compared by their contents, for finding
+ * calls that would return the same result.
+ */
+class CallKey {
+    private final String methodId;
+    private final Object[] args;
+    private final int hash;
+
+    CallKey(String methodId, Object[] args) {
+        this.methodId = methodId;
+        this.args = args == null ? new Object[0] : args.clone();
+        this.hash = 31 * methodId.hashCode() + Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CallKey)) {
+            return false;
+        }
+
+        CallKey other = (CallKey) o;
+        return hash == other.hash && methodId.equals(other.methodId)
+                && Arrays.deepEquals(args, other.args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
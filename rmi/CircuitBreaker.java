@@ -0,0 +1,334 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker of a remote address, shared by all stubs connecting to it.
+ * <p>
+ * <p>
+ * While the breaker is closed, calls are sent as usual. When
+ * <code>failureThreshold</code> calls in a row could not reach the skeleton,
+ * the breaker opens, and for the following <code>coolDown</code>
+ * milliseconds calls fail right away with a
+ * <code>CircuitOpenException</code> instead of waiting for a connection to a
+ * dead host. The first call after the cool-down makes the breaker half open
+ * and is sent as a probe, while other calls still fail. The breaker closes
+ * if the probe returns, and opens again for another cool-down if it fails.
+ * A probe that has neither returned nor failed after a cool-down is given
+ * up on, and the next call is sent as a new probe. Only the outcome of the
+ * probe decides: calls sent before the breaker opened that return or fail
+ * while it is open or half open are ignored.
+ * <p>
+ * <p>
+ * Only failures to reach the skeleton count: a call returning an exception
+ * thrown by the remote method shows that the skeleton is reachable, and a
+ * call whose caller stopped waiting at its deadline says nothing about the
+ * server. Load-balancing stubs send no calls to a replica whose breaker would
+ * reject them.
+ * <p>
+ * <p>
+ * The breaker of an address is returned by
+ * <code>Stub.getCircuitBreaker</code> and configured with
+ * <code>Stub.setCircuitBreaker</code>. Listeners are told of every change of
+ * state, for example to raise alerts.
+ */
+public final class CircuitBreaker {
+    /**
+     * Number of consecutive failures opening a breaker, unless configured
+     * otherwise.
+     */
+    public final static int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /**
+     * Time in milliseconds a breaker stays open, unless configured
+     * otherwise.
+     */
+    public final static long DEFAULT_COOL_DOWN = 1000;
+
+    /**
+     * Permit returned by <code>allow</code> for a call that must fail
+     * without being sent.
+     */
+    static final long REJECTED = -1;
+
+    /**
+     * Permit returned by <code>allow</code> for a call sent while the
+     * breaker is closed. Probes get permits numbered from 1.
+     */
+    static final long CLOSED_CALL = 0;
+
+    /**
+     * States of a breaker.
+     */
+    public enum State {
+        /**
+         * Calls are sent.
+         */
+        CLOSED,
+        /**
+         * Calls fail without being sent.
+         */
+        OPEN,
+        /**
+         * A probe call is in flight, or the next call will be one; other
+         * calls fail without being sent.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Receives the changes of state of a breaker.
+     */
+    public interface Listener {
+        /**
+         * Called after a breaker changed state, by the thread whose call
+         * caused the change. Listeners should not block.
+         */
+        void stateChanged(CircuitBreaker breaker, State from, State to);
+    }
+
+    private final InetSocketAddress address;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private volatile long coolDown = DEFAULT_COOL_DOWN;
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private boolean probing;
+    private long probe;
+    private long probeSentAt;
+
+    CircuitBreaker(InetSocketAddress address) {
+        this.address = address;
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the state of the breaker. An open breaker whose cool-down has
+     * passed stays open until the next call makes it half open.
+     */
+    public State getState() {
+        return state;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Returns the cool-down in milliseconds.
+     */
+    public long getCoolDown() {
+        return coolDown;
+    }
+
+    /**
+     * Returns the number of calls in a row that could not reach the skeleton.
+     */
+    public int getConsecutiveFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the number of calls that failed without being sent.
+     */
+    public long getRejectedCalls() {
+        return rejected.get();
+    }
+
+    public void addListener(Listener listener) {
+        if (listener == null) {
+            throw new NullPointerException("Listener is required");
+        }
+
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker(" + address + ": " + state + ", " + getConsecutiveFailures()
+                + " failures, " + getRejectedCalls() + " rejected)";
+    }
+
+    void configure(int failureThreshold, long coolDown) {
+        this.failureThreshold = failureThreshold;
+        this.coolDown = coolDown;
+    }
+
+    /**
+     * Decides whether a call may be sent, making the breaker half open if
+     * its cool-down has passed. A call allowed while the breaker is half open
+     * is the probe, whose outcome must be recorded.
+     *
+     * @return <code>REJECTED</code> if the call must fail without being
+     *         sent, or else the permit of the call, to be passed back with
+     *         its outcome.
+     */
+    long allow() {
+        if (state == State.CLOSED) {
+            return CLOSED_CALL;
+        }
+
+        long permit = REJECTED;
+        State from = null;
+
+        synchronized (this) {
+            if (state == State.OPEN && isCooledDown(openedAt)) {
+                from = change(State.HALF_OPEN);
+            }
+
+            if (state == State.CLOSED) {
+                permit = CLOSED_CALL;
+            } else if (state == State.HALF_OPEN && (!probing || isCooledDown(probeSentAt))) {
+                probing = true;
+                probeSentAt = System.nanoTime();
+                permit = ++probe;
+            }
+        }
+
+        notify(from, State.HALF_OPEN);
+
+        if (permit == REJECTED) {
+            rejected.incrementAndGet();
+        }
+
+        return permit;
+    }
+
+    /**
+     * Checks whether a call would be allowed now, without changing the
+     * state of the breaker.
+     */
+    boolean isAvailable() {
+        State current = state;
+
+        if (current == State.CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+            return current == State.OPEN ? isCooledDown(openedAt)
+                    : !probing || isCooledDown(probeSentAt);
+        }
+    }
+
+    /**
+     * Records a call whose result arrived, closing the breaker if it was
+     * the probe.
+     *
+     * @param permit The permit <code>allow</code> returned for the call.
+     */
+    void succeeded(long permit) {
+        if (state == State.CLOSED) {
+            failures.set(0);
+            return;
+        }
+
+        State from;
+
+        synchronized (this) {
+            if (!isProbe(permit)) {
+                return;
+            }
+
+            failures.set(0);
+            probing = false;
+            from = change(State.CLOSED);
+        }
+
+        notify(from, State.CLOSED);
+    }
+
+    /**
+     * Records a call that could not reach the skeleton, opening the breaker
+     * when enough calls failed in a row, or when the probe failed.
+     *
+     * @param permit The permit <code>allow</code> returned for the call.
+     */
+    void failed(long permit) {
+        int count = failures.incrementAndGet();
+        State from = null;
+
+        synchronized (this) {
+            if ((state == State.CLOSED && count >= failureThreshold) || isProbe(permit)) {
+                probing = false;
+                openedAt = System.nanoTime();
+                from = change(State.OPEN);
+            }
+        }
+
+        notify(from, State.OPEN);
+    }
+
+    /**
+     * Records a call that told nothing about the skeleton, such as one whose
+     * deadline passed, so that another probe may be sent if it was the
+     * probe.
+     *
+     * @param permit The permit <code>allow</code> returned for the call.
+     */
+    void abandoned(long permit) {
+        if (state == State.CLOSED) {
+            return;
+        }
+
+        synchronized (this) {
+            if (isProbe(permit)) {
+                probing = false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a permit is that of the probe in flight. Must be called
+     * holding the lock of the breaker.
+     */
+    private boolean isProbe(long permit) {
+        return state == State.HALF_OPEN && probing && permit == probe;
+    }
+
+    /**
+     * Checks whether a cool-down has passed since the given time, a value of
+     * <code>System.nanoTime</code>.
+     */
+    private boolean isCooledDown(long since) {
+        return System.nanoTime() - since >= TimeUnit.MILLISECONDS.toNanos(coolDown);
+    }
+
+    /**
+     * Changes the state, returning the previous one, or <code>null</code> if
+     * the state does not change.
+     */
+    private State change(State to) {
+        State from = state;
+
+        if (from == to) {
+            return null;
+        }
+
+        state = to;
+        return from;
+    }
+
+    private void notify(State from, State to) {
+        if (from == null) {
+            return;
+        }
+
+        for (Listener listener : listeners) {
+            listener.stateChanged(this, from, to);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package rmi;
+
+/** Thrown when a call is not sent because the circuit breaker of the remote
+    address is open. The server has not seen the call. */
+public class CircuitOpenException extends RMIException
+{
+    private static final long serialVersionUID = 6031152121417449469L;
+
+    /** Creates a <code>CircuitOpenException</code> with the given message
+        string. */
+    public CircuitOpenException(String message)
+    {
+        super(message);
+    }
+
+    /** Creates a <code>CircuitOpenException</code> with a message string and
+        the given cause. */
+    public CircuitOpenException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,46 @@
+package rmi;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression algorithms for large calls and results.
+ * <p>
+ * <p>
+ * Stubs and skeletons that both speak the binary protocol compress frames
+ * whose payload exceeds a configurable threshold. The receiver recognizes
+ * compressed frames by their first byte, so each side chooses its algorithm
+ * independently. Both algorithms are deflate, at different levels, and need
+ * nothing beyond the JDK.
+ */
+public enum Compression {
+    /**
+     * Frames are never compressed.
+     */
+    NONE(Deflater.NO_COMPRESSION),
+    /**
+     * Fastest deflate level, which still shrinks maps and arrays of
+     * repetitive data several times.
+     */
+    FAST(Deflater.BEST_SPEED),
+    /**
+     * Best deflate level, for slow links where CPU time is cheaper than
+     * bandwidth.
+     */
+    DENSE(Deflater.BEST_COMPRESSION);
+
+    /**
+     * Default size in bytes above which payloads are compressed. Smaller
+     * payloads gain too little to pay for the time spent compressing them.
+     */
+    public final static int DEFAULT_THRESHOLD = 64 * 1024;
+
+    private final int level;
+
+    Compression(int level) {
+        this.level = level;
+    }
+
+    int level() {
+        return level;
+    }
+}
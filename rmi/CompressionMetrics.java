@@ -0,0 +1,117 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the work done compressing and decompressing frames on one side
+ * of the connections to a remote address or of a skeleton.
+ * <p>
+ * <p>
+ * Times are CPU times of the threads doing the work, in nanoseconds, when
+ * the runtime can measure them, and elapsed times otherwise. Payloads that
+ * did not shrink are sent uncompressed; the time spent on them is still
+ * counted.
+ */
+public final class CompressionMetrics {
+    private final static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final AtomicLong compressedFrames = new AtomicLong();
+    private final AtomicLong bytesBefore = new AtomicLong();
+    private final AtomicLong bytesAfter = new AtomicLong();
+    private final AtomicLong compressionTime = new AtomicLong();
+    private final AtomicLong decompressedFrames = new AtomicLong();
+    private final AtomicLong decompressionTime = new AtomicLong();
+
+    /**
+     * Returns the number of frames sent compressed.
+     */
+    public long getCompressedFrames() {
+        return compressedFrames.get();
+    }
+
+    /**
+     * Returns the total size of the payloads of compressed frames, before
+     * compression.
+     */
+    public long getBytesBeforeCompression() {
+        return bytesBefore.get();
+    }
+
+    /**
+     * Returns the total size of the payloads of compressed frames, after
+     * compression.
+     */
+    public long getBytesAfterCompression() {
+        return bytesAfter.get();
+    }
+
+    /**
+     * Returns the number of bytes that compression kept off the network.
+     */
+    public long getBytesSaved() {
+        return bytesBefore.get() - bytesAfter.get();
+    }
+
+    /**
+     * Returns the time spent compressing, in nanoseconds.
+     */
+    public long getCompressionTime() {
+        return compressionTime.get();
+    }
+
+    /**
+     * Returns the number of compressed frames received.
+     */
+    public long getDecompressedFrames() {
+        return decompressedFrames.get();
+    }
+
+    /**
+     * Returns the time spent decompressing, in nanoseconds.
+     */
+    public long getDecompressionTime() {
+        return decompressionTime.get();
+    }
+
+    @Override
+    public String toString() {
+        return "compressed " + getCompressedFrames() + " frames (" + getBytesBeforeCompression()
+                + " -> " + getBytesAfterCompression() + " bytes, "
+                + getCompressionTime() / 1000000 + " ms), decompressed "
+                + getDecompressedFrames() + " frames (" + getDecompressionTime() / 1000000 + " ms)";
+    }
+
+    /**
+     * Returns the current time of the calling thread, for measuring the time
+     * it spends on compression.
+     */
+    static long now() {
+        if (threads.isCurrentThreadCpuTimeSupported()) {
+            long time = threads.getCurrentThreadCpuTime();
+
+            if (time >= 0) {
+                return time;
+            }
+        }
+
+        return System.nanoTime();
+    }
+
+    void compressed(int before, int after, long start) {
+        compressedFrames.incrementAndGet();
+        bytesBefore.addAndGet(before);
+        bytesAfter.addAndGet(after);
+        compressionTime.addAndGet(now() - start);
+    }
+
+    void notCompressed(long start) {
+        compressionTime.addAndGet(now() - start);
+    }
+
+    void decompressed(long start) {
+        decompressedFrames.incrementAndGet();
+        decompressionTime.addAndGet(now() - start);
+    }
+}
@@ -0,0 +1,38 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits the number of calls that a skeleton executes concurrently for a
+ * method of a remote interface, or for all methods of an interface.
+ * <p>
+ * <p>
+ * On a method, the limit applies to calls to that method. On an interface,
+ * it applies to calls to all methods declared in that interface without a
+ * limit of their own, together. Calls beyond the limit wait, without taking a
+ * service thread, in a queue of at most <code>queue</code> calls; when the
+ * queue is full, they are rejected and the client receives an
+ * <code>RMIException</code>. A slow method can then only take part of the
+ * service threads, and does not starve the other methods.
+ * <p>
+ * <p>
+ * Limits can also be set with <code>Skeleton.setConcurrencyLimit</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface ConcurrencyLimit {
+    /**
+     * Maximum number of calls executed concurrently.
+     */
+    int value();
+
+    /**
+     * Maximum number of calls waiting for one of the others to complete.
+     */
+    int queue() default 0;
+}
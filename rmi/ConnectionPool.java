@@ -0,0 +1,917 @@
+package rmi;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of persistent connections to a single remote skeleton.
+ * <p>
+ * <p>
+ * Opening a new TCP connection for every call dominates the cost of small
+ * remote calls. Stubs therefore send their
+ * calls over connections kept open by the pool of their remote address.
+ * <p>
+ * <p>
+ * Connections are multiplexed: calls from many threads are pipelined over the
+ * same connection, each tagged with a request id, and a reader thread per
+ * connection hands every result to the call with the same id, in whatever
+ * order results arrive. A pool opens another connection only when every
+ * connection already has <code>maxPending</code> calls in flight, up to
+ * <code>maxConnections</code> connections.
+ * <p>
+ * <p>
+ * Pools are shared by all stubs connecting to the same address. Connections
+ * without calls in flight for longer than <code>idleTimeout</code>
+ * milliseconds are evicted, and connections closed by the skeleton are
+ * dropped as soon as their reader thread notices the close.
+ * <p>
+ * <p>
+ * Every new connection starts with a hello call offering the binary
+ * protocol. Calls use it if the skeleton accepts; a skeleton that does not
+ * know the hello call answers it with an error, and the connection keeps
+ * using Java serialization. Connections speaking the binary protocol
+ * compress calls larger than the pool's compression threshold.
+ * <p>
+ * <p>
+ * Stubs report the outcome of every call to the pool, which counts the
+ * calls in flight, for load-balancing stubs to compare replicas, and keeps
+ * the circuit breaker of the address. Calls that fail when their deadline
+ * passes fail with a <code>DeadlineExpiredException</code>, which the breaker
+ * does not count against the server.
+ * <p>
+ * <p>
+ * The pool of the first address of a load-balancing stub also records the
+ * latency of each method, from which hedging stubs derive how long to wait
+ * before sending a backup call, and holds the budget limiting how many
+ * backup calls they send.
+ */
+class ConnectionPool {
+    public final static int DEFAULT_MAX_CONNECTIONS = 4;
+    public final static int DEFAULT_MAX_PENDING = 32;
+    public final static long DEFAULT_IDLE_TIMEOUT = 30000;
+
+    /**
+     * Time in milliseconds a new connection waits for the reply to its hello
+     * call.
+     */
+    public final static int HANDSHAKE_TIMEOUT = 10000;
+
+    /**
+     * Time allowed to connect to the skeleton, in milliseconds, unless the
+     * deadline of the call is earlier.
+     */
+    public final static int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Number of latencies of a method that must be recorded before its calls
+     * are hedged.
+     */
+    public final static int HEDGE_MIN_SAMPLES = 20;
+
+    /**
+     * Largest number of backup calls that may be sent in a burst, after a
+     * period without any.
+     */
+    public final static int HEDGE_MAX_BURST = 10;
+
+    /**
+     * Share of a retry that each call to a method marked <code>Retry</code>
+     * adds to the retry budget.
+     */
+    public final static double RETRY_RATIO = 0.1;
+
+    /**
+     * Largest number of retries the retry budget holds, which it also holds
+     * at first.
+     */
+    public final static int RETRY_MAX_BURST = 10;
+
+    private static final ConcurrentHashMap<InetSocketAddress, ConnectionPool> pools =
+            new ConcurrentHashMap<InetSocketAddress, ConnectionPool>();
+
+    /**
+     * Retries allowed to stubs, shared by all addresses so that retries cannot
+     * multiply the load of an outage affecting many of them.
+     */
+    private static final TokenBudget retryBudget = new TokenBudget(RETRY_MAX_BURST, RETRY_MAX_BURST);
+    private static final AtomicLong retriedCalls = new AtomicLong();
+
+    /**
+     * Evicts connections that stayed idle for too long, even if no more calls
+     * are made to their pools.
+     */
+    private static final Timer evictionTimer = new Timer("rmi-pool-eviction", true);
+
+    /**
+     * Fails calls when their deadline passes. The timer of a call that
+     * completes first is cancelled and dropped, so that it does not keep the
+     * call and its result alive until the deadline.
+     */
+    private static final ScheduledThreadPoolExecutor deadlineTimer =
+            new ScheduledThreadPoolExecutor(1, daemon("rmi-pool-deadline"));
+
+    /**
+     * Resends calls that found their connection closed, so that opening a
+     * new connection does not hold up the thread that noticed the close.
+     */
+    private static final ExecutorService resender = Executors.newCachedThreadPool(daemon("rmi-pool-resend"));
+
+    static {
+        deadlineTimer.setRemoveOnCancelPolicy(true);
+        evictionTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for (ConnectionPool pool : pools.values()) {
+                    pool.evictIdle();
+                }
+            }
+        }, DEFAULT_IDLE_TIMEOUT / 2, DEFAULT_IDLE_TIMEOUT / 2);
+    }
+
+    private final InetSocketAddress address;
+    private final int maxConnections;
+    private final int maxPending;
+    private final long idleTimeout;
+    private final CopyOnWriteArrayList<MultiplexedConnection> connections =
+            new CopyOnWriteArrayList<MultiplexedConnection>();
+    private int opening;
+    private volatile Compression compression = Compression.FAST;
+    private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+    private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+    private volatile BulkData.Allocator bulkAllocator;
+    private final ConcurrentHashMap<String, ResultCache> caches =
+            new ConcurrentHashMap<String, ResultCache>();
+    private final CacheStatistics cacheStatistics = new CacheStatistics();
+    private final ConcurrentHashMap<CallKey, CompletableFuture<RMIResult>> inFlight =
+            new ConcurrentHashMap<CallKey, CompletableFuture<RMIResult>>();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final CircuitBreaker breaker;
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    private final TokenBudget hedgeBudget = new TokenBudget(HEDGE_MAX_BURST, 0);
+    private final AtomicLong hedgedCalls = new AtomicLong();
+
+    ConnectionPool(InetSocketAddress address, int maxConnections, int maxPending, long idleTimeout) {
+        this.address = address;
+        this.maxConnections = maxConnections;
+        this.maxPending = maxPending;
+        this.idleTimeout = idleTimeout;
+        this.breaker = new CircuitBreaker(address);
+    }
+
+    /**
+     * Returns the pool shared by all stubs connecting to the given address.
+     */
+    static ConnectionPool forAddress(InetSocketAddress address) {
+        ConnectionPool pool = pools.get(address);
+
+        if (pool == null) {
+            pool = new ConnectionPool(address, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_PENDING,
+                    DEFAULT_IDLE_TIMEOUT);
+            ConnectionPool existing = pools.putIfAbsent(address, pool);
+
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Sends a call over a pooled connection and waits for its result.
+     */
+    RMIResult call(RMICallInfo info) throws IOException, InterruptedException {
+        return await(callAsync(info));
+    }
+
+    private static RMIResult await(CompletableFuture<RMIResult> result)
+    throws IOException, InterruptedException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a call over a pooled connection without waiting for its result.
+     * <p>
+     * <p>
+     * The returned future is completed by the reader thread of the connection
+     * when the result arrives, or exceptionally with an
+     * <code>IOException</code> if the call fails, or with a
+     * <code>CircuitOpenException</code> if the circuit breaker does not allow
+     * the call. Opening a new connection, when one is needed, still happens
+     * in the calling thread, except when a call is resent.
+     */
+    CompletableFuture<RMIResult> callAsync(RMICallInfo info) {
+        long permit = breaker.allow();
+
+        if (permit == CircuitBreaker.REJECTED) {
+            return failed(new CircuitOpenException("Circuit breaker of " + address + " is open"));
+        }
+
+        return track(sendAsync(info), permit);
+    }
+
+    /**
+     * Sends a call over a pooled connection, as allowed by the circuit
+     * breaker.
+     * <p>
+     * <p>
+     * A connection that has been idle may have been closed by the skeleton
+     * just before the call was written to it. If the call could not be
+     * written in full, it never reached the server, so it is repeated once
+     * over another connection, acquired by a thread of the pool. A call that
+     * was written may already have been executed and is never repeated here.
+     */
+    private CompletableFuture<RMIResult> sendAsync(final RMICallInfo info) {
+        MultiplexedConnection connection;
+        CompletableFuture<RMIResult> result;
+
+        try {
+            connection = acquire(info.deadline);
+        } catch (IOException e) {
+            return failed(e);
+        }
+
+        boolean wasIdle = connection.isIdle();
+
+        try {
+            result = connection.send(info);
+        } catch (IOException e) {
+            result = failed(e);
+        }
+
+        if (!wasIdle) {
+            return result;
+        }
+
+        final CompletableFuture<RMIResult> first = result;
+
+        return first.handle((value, failure) -> {
+            if (failure == null) {
+                return CompletableFuture.completedFuture(value);
+            }
+
+            if (info.sent || !isConnectionFailure(failure)) {
+                return first;
+            }
+
+            return CompletableFuture.supplyAsync(() -> resend(info), resender)
+                    .thenCompose(retry -> retry);
+        }).thenCompose(retry -> retry);
+    }
+
+    private CompletableFuture<RMIResult> resend(RMICallInfo info) {
+        try {
+            return acquire(info.deadline).send(info);
+        } catch (IOException e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * Sends a call unless a call to the same method with equal arguments is
+     * already in flight, in which case its result is shared. Every caller
+     * gets its own future, so that a caller giving up does not cancel the
+     * call for the others.
+     */
+    CompletableFuture<RMIResult> callCoalescedAsync(RMICallInfo info) {
+        final CallKey key = new CallKey(info.methodId, info.args);
+        CompletableFuture<RMIResult> flight = inFlight.get(key);
+
+        if (flight == null) {
+            final CompletableFuture<RMIResult> created = new CompletableFuture<RMIResult>();
+            flight = inFlight.putIfAbsent(key, created);
+
+            if (flight == null) {
+                callAsync(info).whenComplete((result, failure) -> {
+                    inFlight.remove(key, created);
+
+                    if (failure != null) {
+                        created.completeExceptionally(failure);
+                    } else {
+                        created.complete(result);
+                    }
+                });
+
+                return created.thenApply(result -> result);
+            }
+        }
+
+        coalescedCalls.incrementAndGet();
+        final CompletableFuture<RMIResult> joined = flight.thenApply(result -> result);
+
+        // the shared call may have a later deadline than this one
+        if (info.deadline != 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(info.deadline - System.nanoTime());
+            expire(joined, Math.max(0, remaining), () ->
+                    joined.completeExceptionally(new DeadlineExpiredException()));
+        }
+
+        return joined;
+    }
+
+    /**
+     * Returns the number of calls that shared the result of another call
+     * instead of being sent.
+     */
+    long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    /**
+     * Counts a call allowed by the circuit breaker until it completes, and
+     * records its outcome in the breaker. Any result, even an exception
+     * thrown by the remote method, shows that the skeleton is reachable;
+     * missed deadlines and arguments that cannot be serialized do not show
+     * anything about it.
+     */
+    private CompletableFuture<RMIResult> track(CompletableFuture<RMIResult> call, final long permit) {
+        outstanding.incrementAndGet();
+
+        return call.whenComplete((result, failure) -> {
+            outstanding.decrementAndGet();
+
+            if (failure == null) {
+                breaker.succeeded(permit);
+            } else if (isConnectionFailure(failure)) {
+                breaker.failed(permit);
+            } else {
+                breaker.abandoned(permit);
+            }
+        });
+    }
+
+    int outstandingCount() {
+        return outstanding.get();
+    }
+
+    CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Checks whether load-balancing stubs should avoid the address, because
+     * its circuit breaker would reject calls.
+     */
+    boolean isEjected() {
+        return !breaker.isAvailable();
+    }
+
+    /**
+     * Returns the histogram of latencies of a method, shared by all stubs
+     * whose first address is this one.
+     */
+    LatencyHistogram latency(String methodId) {
+        LatencyHistogram histogram = latencies.get(methodId);
+
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = latencies.putIfAbsent(methodId, histogram);
+
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Adds the share of a backup call that one hedged call earns, up to
+     * <code>HEDGE_MAX_BURST</code> calls.
+     */
+    void earnHedge(double share) {
+        hedgeBudget.earn(share);
+    }
+
+    /**
+     * Takes a backup call from the budget.
+     *
+     * @return <code>false</code> if the budget is spent.
+     */
+    boolean spendHedge() {
+        if (!hedgeBudget.spend()) {
+            return false;
+        }
+
+        hedgedCalls.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the number of backup calls sent by hedging stubs.
+     */
+    long getHedgedCalls() {
+        return hedgedCalls.get();
+    }
+
+    /**
+     * Adds the share of a retry earned by a call to a method marked
+     * <code>Retry</code>.
+     */
+    static void earnRetry() {
+        retryBudget.earn(RETRY_RATIO);
+    }
+
+    /**
+     * Takes a retry from the budget shared by all stubs.
+     *
+     * @return <code>false</code> if the budget is spent.
+     */
+    static boolean spendRetry() {
+        if (!retryBudget.spend()) {
+            return false;
+        }
+
+        retriedCalls.incrementAndGet();
+        return true;
+    }
+
+    static long getRetriedCalls() {
+        return retriedCalls.get();
+    }
+
+    /**
+     * Returns a timeout in milliseconds shortened to the time left until a
+     * deadline.
+     *
+     * @throws DeadlineExpiredException If the deadline has passed.
+     */
+    private static int timeout(int timeout, long deadline) throws SocketTimeoutException {
+        if (deadline == 0) {
+            return timeout;
+        }
+
+        long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+        if (remaining <= 0) {
+            throw new DeadlineExpiredException();
+        }
+
+        return (int) Math.min(timeout, remaining);
+    }
+
+    /**
+     * Checks whether a call failed because the connection to the skeleton
+     * could not be opened or was lost, rather than because of the call
+     * itself or its deadline.
+     */
+    private static boolean isConnectionFailure(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+
+        return failure instanceof IOException && !(failure instanceof DeadlineExpiredException)
+                && !(failure instanceof NotSerializableException);
+    }
+
+    /**
+     * Runs a task when a timeout in milliseconds passes, unless the call
+     * completes first.
+     */
+    private static void expire(CompletableFuture<RMIResult> call, long timeout, Runnable task) {
+        final ScheduledFuture<?> timer = deadlineTimer.schedule(task, timeout, TimeUnit.MILLISECONDS);
+        call.whenComplete((result, failure) -> timer.cancel(false));
+    }
+
+    /**
+     * Returns the number of deadline timers not yet run or cancelled.
+     */
+    static int scheduledTimers() {
+        return deadlineTimer.getQueue().size();
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static <V> CompletableFuture<V> failed(Throwable cause) {
+        CompletableFuture<V> future = new CompletableFuture<V>();
+        future.completeExceptionally(cause);
+        return future;
+    }
+
+    /**
+     * Selects the open connection with the fewest calls in flight, opening a
+     * new connection if there is none or all of them are busy.
+     * <p>
+     * <p>
+     * Connections are opened outside the lock of the pool, in a slot reserved
+     * under it, so that a slow connect or handshake holds up only the calls
+     * that need the new connection. A call finding no open connection while
+     * every free slot is being opened waits for one of them.
+     */
+    MultiplexedConnection acquire(long deadline) throws IOException {
+        synchronized (this) {
+            while (true) {
+                MultiplexedConnection best = null;
+
+                for (MultiplexedConnection connection : connections) {
+                    if (!connection.isOpen()) {
+                        connections.remove(connection);
+                        continue;
+                    }
+
+                    if (best == null || connection.pendingCount() < best.pendingCount()) {
+                        best = connection;
+                    }
+                }
+
+                boolean full = connections.size() + opening >= maxConnections;
+
+                if (best != null && (best.pendingCount() < maxPending || full)) {
+                    return best;
+                }
+
+                if (!full) {
+                    opening++;
+                    break;
+                }
+
+                try {
+                    wait(timeout(CONNECT_TIMEOUT, deadline));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a connection");
+                }
+            }
+        }
+
+        MultiplexedConnection connection = null;
+
+        try {
+            connection = open(deadline);
+            return connection;
+        } finally {
+            synchronized (this) {
+                opening--;
+
+                if (connection != null) {
+                    connections.add(connection);
+                }
+
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Closes connections that had no calls in flight for longer than the idle
+     * timeout.
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+
+        for (MultiplexedConnection connection : connections) {
+            if (!connection.isOpen()
+                    || (connection.pendingCount() == 0 && now - connection.lastUsed > idleTimeout)) {
+                connections.remove(connection);
+                connection.close(null);
+            }
+        }
+    }
+
+    int connectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Returns the number of pooled connections whose reader has not yet
+     * found them closed.
+     */
+    int openConnectionCount() {
+        int count = 0;
+
+        for (MultiplexedConnection connection : connections) {
+            if (connection.isOpen()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Selects how calls larger than <code>threshold</code> bytes are
+     * compressed, on current and future connections.
+     */
+    void setCompression(Compression compression, int threshold) {
+        this.compression = compression;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Selects the buffers into which bulk data returned by calls is
+     * received.
+     */
+    void setBulkAllocator(BulkData.Allocator allocator) {
+        this.bulkAllocator = allocator;
+    }
+
+    CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    /**
+     * Returns the cache of results of a <code>Cacheable</code> method, shared
+     * by all stubs connecting to the address.
+     */
+    ResultCache cache(String methodId, Cacheable cacheable) {
+        ResultCache cache = caches.get(methodId);
+
+        if (cache == null) {
+            cache = new ResultCache(methodId, cacheable, cacheStatistics);
+            ResultCache existing = caches.putIfAbsent(methodId, cache);
+
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+
+        return cache;
+    }
+
+    void clearCaches() {
+        for (ResultCache cache : caches.values()) {
+            cache.clear();
+        }
+    }
+
+    CacheStatistics getCacheStatistics() {
+        return cacheStatistics;
+    }
+
+    /**
+     * Opens a connection, waiting at most until the deadline of the call it
+     * is opened for.
+     */
+    private MultiplexedConnection open(long deadline) throws IOException {
+        InetSocketAddress target = this.address;
+
+        if (target.isUnresolved()) {
+            target = new InetSocketAddress(target.getHostName(), target.getPort());
+        }
+
+        SocketChannel channel = SocketChannel.open();
+        MultiplexedConnection connection;
+
+        try {
+            int timeout = timeout(CONNECT_TIMEOUT, deadline);
+            channel.socket().connect(target, timeout);
+            connection = new MultiplexedConnection(this, channel, timeout(HANDSHAKE_TIMEOUT, deadline));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        return connection;
+    }
+
+    /**
+     * Failure of a call whose deadline passed before it was sent or before
+     * its result arrived.
+     */
+    static class DeadlineExpiredException extends SocketTimeoutException {
+        private static final long serialVersionUID = 2742160397563517012L;
+
+        DeadlineExpiredException() {
+            super("Deadline exceeded");
+        }
+    }
+
+    /**
+     * Persistent connection to a skeleton shared by concurrent calls.
+     */
+    static class MultiplexedConnection implements Runnable {
+        private final ConnectionPool pool;
+        private final SocketChannel channel;
+        private final Socket socket;
+        private final OutputStream output;
+        private final DataInputStream input;
+        private final boolean binary;
+        private final AtomicLong lastRequestId = new AtomicLong();
+        private final ConcurrentHashMap<Long, CompletableFuture<RMIResult>> pending =
+                new ConcurrentHashMap<Long, CompletableFuture<RMIResult>>();
+        private volatile boolean open = true;
+        private volatile long lastUsed;
+
+        MultiplexedConnection(ConnectionPool pool, SocketChannel channel, int handshakeTimeout)
+        throws IOException {
+            this.pool = pool;
+            this.channel = channel;
+            this.socket = channel.socket();
+            this.socket.setTcpNoDelay(true);
+            this.output = this.socket.getOutputStream();
+            this.input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.binary = handshake(handshakeTimeout);
+            this.lastUsed = System.currentTimeMillis();
+
+            Thread reader = new Thread(this, "rmi-connection-" + socket.getRemoteSocketAddress());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Offers the binary protocol to the skeleton, before any call is sent
+         * and the reader thread starts.
+         *
+         * @return <code>true</code> if the skeleton accepted the protocol.
+         */
+        private boolean handshake(int timeout) throws IOException {
+            RMICallInfo hello = new RMICallInfo(null, Frames.HELLO_METHOD_ID,
+                    new Object[]{BinaryCodec.VERSION});
+            hello.methodId = Frames.HELLO_METHOD_ID;
+
+            Frames.write(output, channel, Frames.encode(hello));
+            socket.setSoTimeout(timeout);
+
+            try {
+                RMIResult reply = (RMIResult) Frames.read(input, pool.compressionMetrics);
+                return reply.exception == null
+                        && Integer.valueOf(BinaryCodec.VERSION).equals(reply.value);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Invalid reply to hello call", e);
+            } finally {
+                socket.setSoTimeout(0);
+            }
+        }
+
+        /**
+         * Sends a call, returning a future completed by the reader thread when
+         * the result arrives, or exceptionally with an <code>IOException</code>
+         * when the connection fails first. Calls with a deadline fail with a
+         * <code>SocketTimeoutException</code> when it passes.
+         */
+        CompletableFuture<RMIResult> send(RMICallInfo info) throws IOException {
+            final CompletableFuture<RMIResult> result = new CompletableFuture<RMIResult>();
+
+            if (info.deadline != 0) {
+                info.timeout = timeout(Integer.MAX_VALUE, info.deadline);
+            }
+
+            info.requestId = lastRequestId.incrementAndGet();
+
+            // serialize outside the lock, so that calls of other threads are
+            // not held up; a call that cannot be serialized leaves the
+            // connection usable and is never registered
+            Frames.Buffer frame = Frames.encode(info, binary);
+
+            if (binary) {
+                frame = Frames.compress(frame, pool.compression, pool.compressionThreshold,
+                        pool.compressionMetrics);
+            }
+
+            pending.put(info.requestId, result);
+
+            if (info.deadline != 0) {
+                expire(info.requestId, result, info.timeout);
+            }
+
+            // close() may have failed pending calls before this one was added
+            if (!open) {
+                pending.remove(info.requestId);
+                result.cancel(false);
+                throw new IOException("Connection is closed");
+            }
+
+            try {
+                synchronized (output) {
+                    Frames.write(output, channel, frame);
+                }
+
+                info.sent = true;
+            } catch (Throwable e) {
+                pending.remove(info.requestId);
+                // nobody waits for the call, but its timer must not outlive it
+                result.cancel(false);
+
+                if (e instanceof IOException) {
+                    close(e);
+                }
+
+                throw e;
+            }
+
+            lastUsed = System.currentTimeMillis();
+            return result;
+        }
+
+        /**
+         * Fails a call when its deadline passes, and forgets it so that a
+         * result arriving later is dropped.
+         */
+        private void expire(final long requestId, final CompletableFuture<RMIResult> result,
+                            long timeout) {
+            ConnectionPool.expire(result, timeout, () -> {
+                if (pending.remove(requestId, result)) {
+                    result.completeExceptionally(new DeadlineExpiredException());
+                }
+            });
+        }
+
+        /**
+         * Reads results and completes the calls they belong to, until the
+         * connection is closed.
+         */
+        public void run() {
+            Throwable cause;
+
+            try {
+                while (true) {
+                    RMIResult result = (RMIResult) Frames.read(input, pool.compressionMetrics,
+                            pool.bulkAllocator);
+                    CompletableFuture<RMIResult> call = pending.remove(result.requestId);
+                    lastUsed = System.currentTimeMillis();
+                    result.source = pool.address;
+
+                    // the caller may have stopped waiting for the result
+                    if (call != null) {
+                        call.complete(result);
+                    }
+                }
+            } catch (Throwable e) {
+                cause = e;
+            }
+
+            close(cause);
+        }
+
+        boolean isOpen() {
+            return open;
+        }
+
+        /**
+         * Checks whether the connection has served calls before and has
+         * none in flight now, so that the skeleton may have closed it.
+         */
+        boolean isIdle() {
+            return lastRequestId.get() > 0 && pending.isEmpty();
+        }
+
+        int pendingCount() {
+            return pending.size();
+        }
+
+        /**
+         * Closes the connection and fails all calls still waiting for results.
+         */
+        void close(Throwable cause) {
+            open = false;
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+
+            IOException failure;
+
+            if (cause instanceof IOException) {
+                failure = (IOException) cause;
+            } else {
+                failure = new IOException("Connection is closed", cause);
+            }
+
+            for (Long requestId : pending.keySet()) {
+                CompletableFuture<RMIResult> call = pending.remove(requestId);
+
+                if (call != null) {
+                    call.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+}
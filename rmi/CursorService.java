@@ -0,0 +1,28 @@
+package rmi;
+
+/**
+ * Methods that stubs call on every skeleton to fetch the elements of a
+ * <code>RemoteIterator</code>. The method ids of these calls start with
+ * <code>METHOD_PREFIX</code>, so that they cannot collide with the methods of
+ * remote interfaces.
+ */
+interface CursorService {
+    String METHOD_PREFIX = "#cursor.";
+
+    /**
+     * Returns the next chunk of elements of a cursor.
+     *
+     * @param cursor The id of the cursor.
+     * @param max    The largest number of elements to return.
+     * @return An array holding the array of elements, and a
+     * <code>Boolean</code> that is <code>true</code> if these are the last
+     * elements, in which case the cursor has been released.
+     * @throws RMIException If there is no such cursor.
+     */
+    Object[] next(long cursor, int max) throws RMIException;
+
+    /**
+     * Releases a cursor before all elements have been fetched.
+     */
+    void close(long cursor) throws RMIException;
+}
@@ -0,0 +1,177 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remote iterators returned by the methods of a skeleton, kept until the
+ * client has fetched all their elements, closed them or stopped using them.
+ * <p>
+ * <p>
+ * Cursors that the client has not used for longer than the idle timeout of
+ * the skeleton expire, and their iterators are closed. Tables holding
+ * cursors are swept periodically, so that abandoned cursors are released
+ * even if no more iterators are returned.
+ */
+class CursorTable implements CursorService {
+    /**
+     * Largest number of elements returned in one chunk, whatever the client
+     * asks for.
+     */
+    final static int MAX_CHUNK_SIZE = 4096;
+
+    /**
+     * Interval between sweeps for expired cursors, in milliseconds.
+     */
+    final static long EXPIRY_INTERVAL = 500;
+
+    /**
+     * Tables holding cursors, which the expiry timer sweeps.
+     */
+    private static final Set<CursorTable> tables = ConcurrentHashMap.newKeySet();
+    private static final Timer expiryTimer = new Timer("rmi-cursor-expiry", true);
+
+    static {
+        expiryTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for (CursorTable table : tables) {
+                    try {
+                        table.closeExpired();
+                    } catch (RuntimeException e) {
+                        // thrown by an iterator being closed; others still expire
+                    }
+                }
+            }
+        }, EXPIRY_INTERVAL, EXPIRY_INTERVAL);
+    }
+
+    private final Skeleton<?> skeleton;
+    private final ConcurrentHashMap<Long, Cursor> cursors = new ConcurrentHashMap<Long, Cursor>();
+    private final AtomicLong lastId = new AtomicLong();
+
+    CursorTable(Skeleton<?> skeleton) {
+        this.skeleton = skeleton;
+    }
+
+    /**
+     * Keeps an iterator returned by a remote method, and returns the handle
+     * sent to the client in its place.
+     */
+    RemoteCursor<Object> open(RemoteIterator<?> iterator) {
+        closeExpired();
+
+        long id = lastId.incrementAndGet();
+        cursors.put(id, new Cursor(iterator));
+        tables.add(this);
+        return new RemoteCursor<Object>(id);
+    }
+
+    public Object[] next(long id, int max) throws RMIException {
+        Cursor cursor = cursors.get(id);
+
+        if (cursor == null) {
+            throw new RMIException("Remote iterator is closed or has expired");
+        }
+
+        int count = Math.max(1, Math.min(max, MAX_CHUNK_SIZE));
+        ArrayList<Object> elements = new ArrayList<Object>(count);
+        boolean last;
+
+        synchronized (cursor) {
+            cursor.reading = true;
+
+            try {
+                while (elements.size() < count && cursor.iterator.hasNext()) {
+                    elements.add(cursor.iterator.next());
+                }
+
+                last = !cursor.iterator.hasNext();
+            } catch (RuntimeException e) {
+                close(id);
+                throw e;
+            } finally {
+                cursor.lastUsed = System.currentTimeMillis();
+                cursor.reading = false;
+            }
+        }
+
+        if (last) {
+            close(id);
+        }
+
+        return new Object[]{elements.toArray(), last};
+    }
+
+    public void close(long id) {
+        Cursor cursor = cursors.remove(id);
+
+        if (cursor != null) {
+            // waits for a chunk being read from the iterator
+            synchronized (cursor) {
+                cursor.iterator.close();
+            }
+        }
+    }
+
+    /**
+     * Releases all cursors, when the skeleton stops.
+     */
+    void closeAll() {
+        for (Long id : cursors.keySet()) {
+            close(id);
+        }
+
+        tables.remove(this);
+    }
+
+    int size() {
+        return cursors.size();
+    }
+
+    /**
+     * Releases cursors that the client has not used for longer than the idle
+     * timeout of the skeleton, and stops sweeping the table once it holds no
+     * more cursors.
+     */
+    private void closeExpired() {
+        long idleTimeout = skeleton.getIdleTimeout();
+
+        if (idleTimeout != 0) {
+            long now = System.currentTimeMillis();
+
+            for (Map.Entry<Long, Cursor> entry : cursors.entrySet()) {
+                Cursor cursor = entry.getValue();
+
+                // a slow iterator must not hold up the sweep
+                if (!cursor.reading && now - cursor.lastUsed > idleTimeout) {
+                    close(entry.getKey());
+                }
+            }
+        }
+
+        if (cursors.isEmpty()) {
+            tables.remove(this);
+
+            // a cursor may have been opened in the meantime
+            if (!cursors.isEmpty()) {
+                tables.add(this);
+            }
+        }
+    }
+
+    private static class Cursor {
+        final RemoteIterator<?> iterator;
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile boolean reading;
+
+        Cursor(RemoteIterator<?> iterator) {
+            this.iterator = iterator;
+        }
+    }
+}
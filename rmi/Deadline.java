@@ -0,0 +1,123 @@
+package rmi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which the remote calls made by a thread must complete.
+ * <p>
+ * <p>
+ * A deadline applies to the calls that the thread makes until it is closed,
+ * usually in a <code>try</code>-with-resources statement:
+ * <pre>
+ * try (Deadline deadline = Deadline.after(200)) {
+ *     stub.lookup(key);
+ * }
+ * </pre>
+ * Deadlines nest: an inner deadline never extends an outer one. Stubs bound
+ * both the time to connect and the time to wait for the result by the
+ * deadline, and fail calls that miss it with a
+ * <code>DeadlineExceededException</code>.
+ * <p>
+ * <p>
+ * The remaining time travels with the call. The skeleton does not start
+ * calls whose deadline has already passed, and makes the deadline current
+ * while the remote method runs, so that the method can check
+ * <code>Deadline.current()</code> to abandon work no longer awaited, and so
+ * that the calls it makes to other servers inherit the deadline.
+ */
+public final class Deadline implements AutoCloseable {
+    private final static ThreadLocal<Deadline> current = new ThreadLocal<Deadline>();
+
+    /**
+     * Value of <code>System.nanoTime</code> at which the deadline passes.
+     */
+    private final long expires;
+    private final Deadline previous;
+
+    private Deadline(long expires, Deadline previous) {
+        this.expires = expires;
+        this.previous = previous;
+    }
+
+    /**
+     * Sets a deadline for the calls made by the current thread, or the
+     * current deadline if it is earlier.
+     *
+     * @param timeout The time from now until the deadline, in milliseconds.
+     * @throws IllegalArgumentException If <code>timeout</code> is negative.
+     */
+    public static Deadline after(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+
+        return enter(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    /**
+     * Returns the deadline of the current thread, or <code>null</code> if it
+     * has none.
+     */
+    public static Deadline current() {
+        return current.get();
+    }
+
+    /**
+     * Returns the time left until the deadline in milliseconds, or 0 if it
+     * has passed.
+     */
+    public long remaining() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expires - System.nanoTime()));
+    }
+
+    /**
+     * Checks whether the deadline has passed.
+     */
+    public boolean isExpired() {
+        return System.nanoTime() - expires >= 0;
+    }
+
+    /**
+     * Restores the deadline that was current when this one was set.
+     */
+    @Override
+    public void close() {
+        if (current.get() == this) {
+            current.set(previous);
+        }
+    }
+
+    /**
+     * Makes a deadline given as a value of <code>System.nanoTime</code>
+     * current, unless the current deadline is earlier.
+     */
+    static Deadline enter(long expires) {
+        Deadline previous = current.get();
+
+        if (previous != null && previous.expires - expires < 0) {
+            expires = previous.expires;
+        }
+
+        Deadline deadline = new Deadline(expires, previous);
+        current.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * Returns the deadline of a call made now by the current thread with the
+     * given timeout, as a value of <code>System.nanoTime</code>, or 0 if the
+     * call has no deadline.
+     *
+     * @param timeout The timeout in milliseconds, or 0 for none.
+     */
+    static long expires(long timeout) {
+        Deadline deadline = current.get();
+        long expires = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+
+        if (deadline != null && (expires == 0 || deadline.expires - expires < 0)) {
+            expires = deadline.expires;
+        }
+
+        return expires;
+    }
+}
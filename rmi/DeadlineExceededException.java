@@ -0,0 +1,22 @@
+package rmi;
+
+/** Thrown when a remote call does not complete before its deadline. The
+    server may or may not have executed the call. */
+public class DeadlineExceededException extends RMIException
+{
+    private static final long serialVersionUID = 5999752509763695836L;
+
+    /** Creates a <code>DeadlineExceededException</code> with the given
+        message string. */
+    public DeadlineExceededException(String message)
+    {
+        super(message);
+    }
+
+    /** Creates a <code>DeadlineExceededException</code> with a message string
+        and the given cause. */
+    public DeadlineExceededException(String message, Throwable cause)
+    {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,407 @@
+package rmi;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Length-prefixed framing of RMI messages.
+ * <p>
+ * <p>
+ * Every <code>RMICallInfo</code> and <code>RMIResult</code> travels as a
+ * four-byte big-endian length followed by that many bytes holding the
+ * serialized message. Framing lets a receiver find message boundaries without
+ * deserializing, which non-blocking skeletons need in order to collect a whole
+ * message before decoding it.
+ * <p>
+ * <p>
+ * Payloads are either Java serialization streams, which start with the byte
+ * <code>0xAC</code>, or messages of the compact binary protocol implemented
+ * by <code>BinaryCodec</code>, which start with its version byte. Stubs use
+ * the binary protocol only after the skeleton accepted it in reply to a
+ * hello call sent when the connection is opened; skeletons answer every call
+ * in the encoding it arrived in. Peers that do not know the binary protocol
+ * therefore keep exchanging serialized messages.
+ * <p>
+ * <p>
+ * Peers speaking the binary protocol may also compress large payloads. A
+ * compressed payload starts with the byte <code>COMPRESSED</code>, followed
+ * by the algorithm, the length of the original payload and the deflated
+ * original payload.
+ */
+class Frames {
+    /**
+     * Largest accepted frame, which guards against allocating huge buffers
+     * when a peer sends garbage.
+     */
+    public final static int MAX_FRAME_LENGTH = 256 * 1024 * 1024;
+
+    public final static int HEADER_LENGTH = 4;
+
+    /**
+     * Method id of the hello call, which offers the binary protocol version
+     * of the stub as its argument and returns the version the skeleton
+     * accepts. The id cannot collide with the id of a Java method.
+     */
+    final static String HELLO_METHOD_ID = "#hello";
+
+    /**
+     * First byte of compressed payloads, distinct from the first byte of
+     * serialized and binary payloads.
+     */
+    final static int COMPRESSED = 0x5A;
+
+    private final static int COMPRESSED_HEADER_LENGTH = 6;
+
+    /**
+     * Size of the chunk through which streams copy bulk data into direct
+     * buffers.
+     */
+    private final static int COPY_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Byte array output stream whose buffer can be written to a channel or
+     * stream without copying it.
+     */
+    static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(512);
+        }
+
+        Buffer(int size) {
+            super(size);
+        }
+
+        /**
+         * Bulk data written after the frame, in order.
+         */
+        List<BulkData> attachments = Collections.emptyList();
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * Serializes a message into a complete frame, including the length
+     * prefix.
+     */
+    static Buffer encode(Object message) throws IOException {
+        return encode(message, false);
+    }
+
+    /**
+     * Encodes a call or a result into a complete frame, using the binary
+     * protocol if requested.
+     */
+    static Buffer encode(Object message, boolean binary) throws IOException {
+        Buffer frame = new Buffer();
+        frame.write(new byte[HEADER_LENGTH]);
+
+        if (binary) {
+            BinaryCodec.Output output = new BinaryCodec.Output(frame);
+
+            if (message instanceof RMICallInfo) {
+                BinaryCodec.writeCall(output, (RMICallInfo) message);
+            } else {
+                BinaryCodec.writeResult(output, (RMIResult) message);
+            }
+
+            frame.attachments = output.attachments;
+        } else {
+            ObjectOutputStream output = new ObjectOutputStream(frame);
+            output.writeObject(message);
+            output.close();
+        }
+
+        setLength(frame, frame.size() - HEADER_LENGTH);
+        return frame;
+    }
+
+    private static void setLength(Buffer frame, int length) throws StreamCorruptedException {
+        checkLength(length);
+
+        byte[] bytes = frame.array();
+        bytes[0] = (byte) (length >>> 24);
+        bytes[1] = (byte) (length >>> 16);
+        bytes[2] = (byte) (length >>> 8);
+        bytes[3] = (byte) length;
+    }
+
+    /**
+     * Compresses a frame of the binary protocol if its payload is larger than
+     * the threshold.
+     *
+     * @return The compressed frame, or the original frame if it is below the
+     * threshold or did not shrink.
+     */
+    static Buffer compress(Buffer frame, Compression compression, int threshold,
+                           CompressionMetrics metrics) throws IOException {
+        int length = frame.size() - HEADER_LENGTH;
+
+        if (compression == Compression.NONE || length <= threshold) {
+            return frame;
+        }
+
+        long start = CompressionMetrics.now();
+        Deflater deflater = new Deflater(compression.level());
+        Buffer compressed = new Buffer(length / 2 + HEADER_LENGTH + COMPRESSED_HEADER_LENGTH);
+
+        try {
+            DataOutputStream header = new DataOutputStream(compressed);
+            header.writeInt(0);
+            header.writeByte(COMPRESSED);
+            header.writeByte(compression.ordinal());
+            header.writeInt(length);
+
+            deflater.setInput(frame.array(), HEADER_LENGTH, length);
+            deflater.finish();
+
+            byte[] chunk = new byte[Math.min(length, 64 * 1024)];
+
+            while (!deflater.finished() && compressed.size() < frame.size()) {
+                int count = deflater.deflate(chunk);
+                compressed.write(chunk, 0, count);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (compressed.size() >= frame.size()) {
+            metrics.notCompressed(start);
+            return frame;
+        }
+
+        int compressedLength = compressed.size() - HEADER_LENGTH;
+        setLength(compressed, compressedLength);
+        compressed.attachments = frame.attachments;
+        metrics.compressed(length, compressedLength, start);
+
+        return compressed;
+    }
+
+    /**
+     * Decodes the payload of a frame, in whichever encoding it was written.
+     *
+     * @param methods Methods of the skeleton by numeric id, needed to decode
+     *                binary calls, or <code>null</code> when decoding results.
+     * @param metrics Counters of the time spent decompressing payloads.
+     */
+    static Object decode(byte[] payload, int offset, int length, Map<Long, MethodInvoker> methods,
+                         CompressionMetrics metrics)
+    throws IOException, ClassNotFoundException {
+        if (length > 0 && payload[offset] == (byte) COMPRESSED) {
+            byte[] original = decompress(payload, offset, length, metrics);
+
+            if (!BinaryCodec.isBinary(original, 0, original.length)) {
+                throw new StreamCorruptedException("Compressed payload is not binary");
+            }
+
+            return decode(original, 0, original.length, methods, metrics);
+        }
+
+        if (!BinaryCodec.isBinary(payload, offset, length)) {
+            return decodeSerialized(payload, offset, length);
+        }
+
+        BinaryCodec.Input input = new BinaryCodec.Input(
+                new ByteArrayInputStream(payload, offset + 1, length - 1));
+        Object message = BinaryCodec.read(input, methods);
+
+        if (!input.attachments.isEmpty()) {
+            if (message instanceof RMICallInfo) {
+                ((RMICallInfo) message).attachments = input.attachments;
+            } else {
+                ((RMIResult) message).attachments = input.attachments;
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Returns the bulk data whose bytes follow the frame of a message.
+     */
+    static List<BulkData> attachments(Object message) {
+        List<BulkData> attachments = message instanceof RMICallInfo
+                ? ((RMICallInfo) message).attachments
+                : ((RMIResult) message).attachments;
+
+        return attachments == null ? Collections.<BulkData>emptyList() : attachments;
+    }
+
+    /**
+     * Returns the number of bytes a frame and its attachments take on the
+     * network.
+     *
+     * @param length The length of the payload of the frame.
+     */
+    static long size(int length, List<BulkData> attachments) {
+        long size = HEADER_LENGTH + length;
+
+        for (BulkData data : attachments) {
+            size += data.size();
+        }
+
+        return size;
+    }
+
+    private static byte[] decompress(byte[] payload, int offset, int length,
+                                     CompressionMetrics metrics) throws IOException {
+        if (length < COMPRESSED_HEADER_LENGTH) {
+            throw new StreamCorruptedException("Truncated compressed payload");
+        }
+
+        long start = CompressionMetrics.now();
+        int originalLength = new DataInputStream(
+                new ByteArrayInputStream(payload, offset + 2, 4)).readInt();
+        checkLength(originalLength);
+
+        byte[] original = new byte[originalLength];
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(payload, offset + COMPRESSED_HEADER_LENGTH,
+                    length - COMPRESSED_HEADER_LENGTH);
+
+            int count = 0;
+
+            while (count < originalLength && !inflater.finished()) {
+                int inflated = inflater.inflate(original, count, originalLength - count);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                count += inflated;
+            }
+
+            if (count != originalLength || !inflater.finished()) {
+                throw new StreamCorruptedException("Compressed payload has the wrong length");
+            }
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed payload: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+
+        metrics.decompressed(start);
+        return original;
+    }
+
+    /**
+     * Deserializes a Java serialization stream.
+     */
+    static Object decodeSerialized(byte[] payload, int offset, int length)
+    throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ObjectInputStream(
+                new ByteArrayInputStream(payload, offset, length));
+
+        try {
+            return input.readObject();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes a complete frame to a stream, followed by its attachments.
+     *
+     * @param channel The channel of the stream, to which attachments are
+     *                written directly, or <code>null</code> if the stream has
+     *                no channel, in which case they are copied to the stream
+     *                through a chunk.
+     */
+    static void write(OutputStream output, WritableByteChannel channel, Buffer frame)
+    throws IOException {
+        output.write(frame.array(), 0, frame.size());
+        output.flush();
+
+        if (frame.attachments.isEmpty()) {
+            return;
+        }
+
+        if (channel == null) {
+            channel = Channels.newChannel(output);
+        }
+
+        for (BulkData data : frame.attachments) {
+            data.transferTo(channel);
+        }
+
+        output.flush();
+    }
+
+    /**
+     * Reads the payload of a frame whose length prefix has already been read,
+     * decodes it and reads its attachments.
+     *
+     * @param allocator The allocator of buffers for the attachments, or
+     *                  <code>null</code> to read them into heap buffers.
+     */
+    static Object readPayload(DataInputStream input, int length, Map<Long, MethodInvoker> methods,
+                              CompressionMetrics metrics, BulkData.Allocator allocator)
+    throws IOException, ClassNotFoundException {
+        checkLength(length);
+
+        byte[] payload = new byte[length];
+        input.readFully(payload);
+
+        Object message = decode(payload, 0, length, methods, metrics);
+        byte[] chunk = null;
+
+        for (BulkData data : attachments(message)) {
+            ByteBuffer target = data.target(allocator);
+
+            if (target.hasArray()) {
+                input.readFully(target.array(), target.arrayOffset() + target.position(),
+                        target.remaining());
+                continue;
+            }
+
+            // streams cannot read into direct buffers
+            if (chunk == null) {
+                chunk = new byte[Math.min(COPY_CHUNK_SIZE, target.remaining())];
+            }
+
+            while (target.hasRemaining()) {
+                int count = Math.min(chunk.length, target.remaining());
+                input.readFully(chunk, 0, count);
+                target.put(chunk, 0, count);
+            }
+        }
+
+        return message;
+    }
+
+    /**
+     * Reads a frame from a stream and decodes its payload, reading bulk data
+     * into heap buffers.
+     */
+    static Object read(DataInputStream input, CompressionMetrics metrics)
+    throws IOException, ClassNotFoundException {
+        return read(input, metrics, null);
+    }
+
+    /**
+     * Reads a frame from a stream and decodes its payload, reading bulk data
+     * into buffers of the given allocator.
+     */
+    static Object read(DataInputStream input, CompressionMetrics metrics, BulkData.Allocator allocator)
+    throws IOException, ClassNotFoundException {
+        return readPayload(input, input.readInt(), null, metrics, allocator);
+    }
+
+    static void checkLength(int length) throws StreamCorruptedException {
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+    }
+}
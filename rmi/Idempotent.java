@@ -0,0 +1,30 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a remote interface that may be executed more than once,
+ * or once on behalf of several callers, without changing the outcome.
+ * <p>
+ * <p>
+ * When <code>coalesce</code> is set, concurrent calls made through stubs
+ * connecting to the same address, to the same method and with equal
+ * arguments, share one call to the server: the first call is sent, and the
+ * others wait for its result. All of them then return the same value or
+ * throw the same exception. Arguments are compared with
+ * <code>Arrays.deepEquals</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Idempotent {
+    /**
+     * Whether concurrent calls with equal arguments share one call to the
+     * server.
+     */
+    boolean coalesce() default false;
+}
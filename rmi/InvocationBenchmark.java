@@ -0,0 +1,89 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+
+/**
+ * Compares the per-call cost of the two ways a skeleton can invoke a server
+ * method: <code>Method.invoke</code>, and the method handles bound by
+ * <code>MethodInvoker</code>. Network and serialization are left out, so that
+ * only the dispatch overhead is measured.
+ * <p>
+ * <p>
+ * Usage: <code>java rmi.InvocationBenchmark [calls]</code>
+ */
+public class InvocationBenchmark {
+    private final static int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int calls = 5000000;
+
+        if (args.length > 0) {
+            calls = Integer.parseInt(args[0]);
+        }
+
+        PingPongServer server = new PingPongServerImplementation();
+
+        Method ping = PingPongServer.class.getMethod("ping", int.class);
+        Method accepts = PingPongServer.class.getMethod("methodThatAcceptsInterface", java.util.Map.class);
+
+        Object[][] pingArgs = new Object[][]{{1}, {2}, {3}};
+        Object[][] acceptsArgs = new Object[][]{{new HashMap<String, Integer>()}};
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            System.out.println("Round " + round + ", " + calls + " calls:");
+
+            report("ping(int) via reflection",
+                    reflection(ping, server, pingArgs, calls), calls);
+            report("ping(int) via method handle",
+                    handle(new MethodInvoker(ping, server), pingArgs, calls), calls);
+            report("methodThatAcceptsInterface via reflection",
+                    reflection(accepts, server, acceptsArgs, calls), calls);
+            report("methodThatAcceptsInterface via method handle",
+                    handle(new MethodInvoker(accepts, server), acceptsArgs, calls), calls);
+        }
+    }
+
+    private static long reflection(Method method, Object server, Object[][] args, int calls)
+    throws Exception {
+        // a fresh copy, so that the access check is not disabled by MethodInvoker
+        Method m = PingPongServer.class.getMethod(method.getName(), method.getParameterTypes());
+        int sink = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; i++) {
+            sink += m.invoke(server, args[i % args.length]).hashCode();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    private static long handle(MethodInvoker invoker, Object[][] args, int calls)
+    throws Exception {
+        int sink = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < calls; i++) {
+            sink += invoker.invoke(args[i % args.length]).hashCode();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        consume(sink);
+        return elapsed;
+    }
+
+    private static void report(String name, long elapsed, int calls) {
+        System.out.printf("  %-48s %8.1f ns/call%n", name, (double) elapsed / calls);
+    }
+
+    /**
+     * Keeps results alive, so that the JIT cannot drop the measured calls.
+     */
+    private static void consume(int sink) {
+        if (sink == 42) {
+            System.out.print("");
+        }
+    }
+}
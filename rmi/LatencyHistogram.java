@@ -0,0 +1,185 @@
+package rmi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of call latencies, from which percentiles are read.
+ * <p>
+ * <p>
+ * Latencies are counted in buckets of nanoseconds. Below 16 nanoseconds
+ * every value has its own bucket; above, each power of two is split into 16
+ * buckets, so that a percentile is never off by more than about 6% of its
+ * value, even for methods returning in less than a microsecond. Latencies
+ * beyond about 19 hours count in the last bucket. Recording
+ * takes two atomic increments and the histogram has a fixed size, so it
+ * may be updated by every call of a busy method. Reading a percentile scans
+ * every bucket; callers reading one on every call use the cached percentile
+ * instead, which is computed again only every
+ * <code>REFRESH_SAMPLES</code> latencies or <code>REFRESH_INTERVAL</code>
+ * milliseconds.
+ */
+public final class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final static int MAX_EXPONENT = 46;
+    private final static int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Number of latencies recorded after which a cached percentile is
+     * computed again.
+     */
+    final static int REFRESH_SAMPLES = 100;
+
+    /**
+     * Time in milliseconds after which a cached percentile is computed again.
+     */
+    final static long REFRESH_INTERVAL = 1000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private volatile CachedPercentile cached;
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(0, nanos)));
+        total.increment();
+    }
+
+    /**
+     * Returns the number of latencies recorded.
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Returns a percentile as computed by <code>getPercentile</code> at most
+     * <code>REFRESH_SAMPLES</code> latencies or
+     * <code>REFRESH_INTERVAL</code> milliseconds ago.
+     */
+    long getCachedPercentile(double percentile) {
+        CachedPercentile current = cached;
+        long count = getCount();
+        long now = System.nanoTime();
+
+        if (current == null || current.percentile != percentile
+                || count - current.count >= REFRESH_SAMPLES
+                || now - current.computedAt >= TimeUnit.MILLISECONDS.toNanos(REFRESH_INTERVAL)) {
+            // concurrent callers may both compute it, which is harmless
+            current = new CachedPercentile(percentile, getPercentile(percentile), count, now);
+            cached = current;
+        }
+
+        return current.value;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of recorded
+     * latencies fall, rounded up to the end of its bucket.
+     *
+     * @param percentile The percentage, between 0 and 100.
+     * @return The latency in nanoseconds, or 0 if nothing was recorded.
+     * @throws IllegalArgumentException If <code>percentile</code> is not
+     *                                  between 0 and 100.
+     */
+    public long getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Returns the bucket counting a latency in nanoseconds.
+     */
+    private static int index(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest latency in nanoseconds counted by a bucket.
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * Percentile computed when the histogram held <code>count</code>
+     * latencies.
+     */
+    private static final class CachedPercentile {
+        final double percentile;
+        final long value;
+        final long count;
+        final long computedAt;
+
+        CachedPercentile(double percentile, long value, long count, long computedAt) {
+            this.percentile = percentile;
+            this.value = value;
+            this.count = count;
+            this.computedAt = computedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram(count=" + getCount()
+                + ", p50=" + format(getPercentile(50))
+                + ", p99=" + format(getPercentile(99)) + ")";
+    }
+
+    private static String format(long nanos) {
+        if (nanos < TimeUnit.MICROSECONDS.toNanos(1)) {
+            return nanos + "ns";
+        }
+
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+}
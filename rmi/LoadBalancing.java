@@ -0,0 +1,28 @@
+package rmi;
+
+/**
+ * Policies spreading the calls of a stub over several replicas of a remote
+ * object.
+ * <p>
+ * <p>
+ * Replicas whose <code>CircuitBreaker</code> is open are skipped by every
+ * policy until a probe call may be sent to them. When all replicas are
+ * skipped, calls go to one of them and fail there without being sent.
+ */
+public enum LoadBalancing {
+    /**
+     * Replicas take turns, regardless of how busy each of them is.
+     */
+    ROUND_ROBIN,
+    /**
+     * Each call goes to the replica with the fewest calls in flight from
+     * this client, which steers calls away from slow replicas.
+     */
+    LEAST_OUTSTANDING,
+    /**
+     * Each call goes to the less busy of two replicas picked at random. This
+     * is nearly as good as <code>LEAST_OUTSTANDING</code> while avoiding the
+     * herd of clients that all pick the same idle replica.
+     */
+    POWER_OF_TWO_CHOICES
+}
@@ -0,0 +1,148 @@
+package rmi;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Invokes one remote interface method on a server object.
+ * <p>
+ * <p>
+ * The method is bound to the server once, as a method handle taking the
+ * argument array and returning the boxed result, so that calls skip the
+ * access check that <code>Method.invoke</code> repeats every time. Arguments
+ * are checked against the parameter types before the call, so that only
+ * exceptions thrown by the method are reported wrapped in
+ * <code>InvocationTargetException</code>, like <code>Method.invoke</code>
+ * does, which is what stubs expect. If the method cannot be bound, calls fall
+ * back to reflection.
+ * <p>
+ * <p>
+ * The invoker also keeps a moving average of the time the method takes, by
+ * which the skeleton judges whether a queued call can still complete before
+ * its deadline, and the metrics of the method that the skeleton reports.
+ */
+class MethodInvoker {
+    private final static MethodType GENERIC_TYPE =
+            MethodType.methodType(Object.class, Object[].class);
+
+    final Method method;
+    final Class<?>[] parameterTypes;
+    private final Object server;
+    private final MethodHandle handle;
+    private volatile long averageTime;
+
+    /**
+     * Concurrency limit of the method, or <code>null</code> if it has none.
+     */
+    volatile Bulkhead bulkhead;
+
+    /**
+     * Counters and latencies of the calls to the method.
+     */
+    final MethodMetrics metrics = new MethodMetrics();
+
+    MethodInvoker(Method method, Object server) {
+        this.method = method;
+        this.parameterTypes = method.getParameterTypes();
+        this.server = server;
+        this.handle = bind(method, server);
+    }
+
+    private static MethodHandle bind(Method method, Object server) {
+        try {
+            // skips the access check of method handle creation and reflection
+            method.setAccessible(true);
+        } catch (RuntimeException e) {
+            // unreflect then checks access itself
+        }
+
+        try {
+            return MethodHandles.lookup().unreflect(method)
+                    .bindTo(server)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(GENERIC_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Invokes the method with the given arguments.
+     *
+     * @param args The arguments, or <code>null</code> for a method without
+     *             parameters.
+     * @return The value returned by the method, boxed if it is primitive.
+     * @throws InvocationTargetException If the method throws an exception.
+     * @throws IllegalArgumentException  If the arguments do not match the
+     *                                   parameters of the method.
+     */
+    Object invoke(Object[] args) throws InvocationTargetException, IllegalAccessException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            Object value = call(args);
+            failed = false;
+            return value;
+        } finally {
+            long time = System.nanoTime() - start;
+            long average = averageTime;
+
+            // updates racing with each other lose a sample, which is harmless
+            averageTime = average == 0 ? time : average + (time - average) / 8;
+            metrics.executed(time, failed);
+        }
+    }
+
+    /**
+     * Returns the average time the method has taken recently, in nanoseconds,
+     * or 0 if it has not been invoked yet.
+     */
+    long averageTime() {
+        return averageTime;
+    }
+
+    private Object call(Object[] args) throws InvocationTargetException, IllegalAccessException {
+        checkArguments(args);
+
+        if (handle == null) {
+            return method.invoke(server, args);
+        }
+
+        try {
+            return (Object) handle.invokeExact(args);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Checks the arguments against the parameters of the method, so that a
+     * failure to convert them is not mistaken for an exception thrown by the
+     * method itself.
+     *
+     * @throws IllegalArgumentException If the arguments do not match the
+     *                                  parameters of the method.
+     */
+    private void checkArguments(Object[] args) {
+        int count = args == null ? 0 : args.length;
+
+        if (count != parameterTypes.length) {
+            throw new IllegalArgumentException("Wrong number of arguments");
+        }
+
+        for (int i = 0; i < count; i++) {
+            boolean valid = args[i] == null
+                    ? !parameterTypes[i].isPrimitive()
+                    : RMIHelper.isCompatible(parameterTypes[i], args[i]);
+
+            if (!valid) {
+                throw new IllegalArgumentException("Argument " + i + " of " + method.getName()
+                        + " is not of type " + parameterTypes[i].getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package rmi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the calls a skeleton has executed for
+ * one method of its remote interface.
+ * <p>
+ * <p>
+ * Queue time runs from the moment the call was read from its connection to
+ * the moment a service thread started it, and so includes any wait in a
+ * bulkhead. Execution time is the time the method itself took. Bytes are
+ * counted as they travel on the network, including frame headers and bulk
+ * data, and after compression.
+ * <p>
+ * <p>
+ * Only calls that reached the method are counted; calls rejected or dropped
+ * before they started are reported by the limits that turned them away.
+ * Every counter is updated without locks, so the metrics may be read at any
+ * time while the skeleton runs, although counters read one after the other
+ * may be a few calls apart.
+ */
+public final class MethodMetrics {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LatencyHistogram executionTime = new LatencyHistogram();
+
+    /**
+     * Returns the number of calls executed.
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * Returns the number of calls in which the method threw an exception.
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Returns the number of bytes received for the calls.
+     */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Returns the number of bytes sent with the results of the calls.
+     */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    /**
+     * Returns the histogram of the time calls waited before they started.
+     */
+    public LatencyHistogram getQueueTime() {
+        return queueTime;
+    }
+
+    /**
+     * Returns the histogram of the time the method took.
+     */
+    public LatencyHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    /**
+     * Records a call starting on a service thread.
+     *
+     * @param bytes  The size of the call on the network.
+     * @param queued The time the call waited, in nanoseconds.
+     */
+    void started(long bytes, long queued) {
+        bytesIn.add(bytes);
+        queueTime.record(queued);
+    }
+
+    /**
+     * Records the method returning or throwing.
+     *
+     * @param time   The time the method took, in nanoseconds.
+     * @param failed Whether the method threw an exception.
+     */
+    void executed(long time, boolean failed) {
+        calls.increment();
+        executionTime.record(time);
+
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Records the result of a call being sent.
+     *
+     * @param bytes The size of the result on the network.
+     */
+    void sent(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "MethodMetrics(calls=" + getCalls()
+                + ", errors=" + getErrors()
+                + ", bytesIn=" + getBytesIn()
+                + ", bytesOut=" + getBytesOut()
+                + ", queueTime=" + queueTime
+                + ", executionTime=" + executionTime + ")";
+    }
+}
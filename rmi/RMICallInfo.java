@@ -1,20 +1,106 @@
 package rmi;
 
 import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.List;
 
 /**
  * An object sent from client to host
- * that contains class, method, and arguments to be invoked
+ * that contains class, method, and arguments to be invoked.
+ * Many calls may be in flight over the same connection; the request id,
+ * unique per connection, pairs each call with its <code>RMIResult</code>.
+ * The method id, built by <code>RMIHelper.methodId</code>, names the exact
+ * overload to invoke. Calls sent with the binary protocol carry only the
+ * numeric hash of the method id. A call with a deadline carries the time
+ * that was left until the deadline when it was sent, rather than the
+ * deadline itself, so that the clocks of client and server need not agree.
  */
 class RMICallInfo implements Serializable {
+    /**
+     * Version of the serialized form, pinned to the one of the last release
+     * without the binary protocol, so that its stubs and skeletons can still
+     * exchange calls and the hello call with this one. Fields added since are ignored by
+     * earlier versions.
+     */
+    private static final long serialVersionUID = -5979134716799274301L;
+
+    public long requestId;
     public String className;
     public String methodName;
+    public String methodId;
+    public long methodHash;
     public Object[] args;
 
+    /**
+     * Milliseconds left until the deadline of the call when it was sent, or
+     * 0 if it has none.
+     */
+    public long timeout;
+
+    /**
+     * Deadline of the call as a value of <code>System.nanoTime</code> on
+     * this side of the connection, or 0 if it has none.
+     */
+    transient long deadline;
+
+    /**
+     * Value of <code>System.nanoTime</code> when the skeleton received the
+     * call.
+     */
+    transient long arrived;
+
+    /**
+     * Number of bytes the call took on the network, counted by the skeleton.
+     */
+    transient long size;
+
+    /**
+     * Whether the call arrived in the binary encoding, which its result then
+     * uses as well.
+     */
+    transient boolean binary;
+
+    /**
+     * Parameter types of the method, which direct the binary encoding of
+     * the arguments.
+     */
+    transient Class<?>[] parameterTypes;
+
+    /**
+     * Whether the call was written to a connection in full, so that the
+     * skeleton may have executed it even if its result never arrives.
+     */
+    transient volatile boolean sent;
+
+    /**
+     * Bulk data arguments whose bytes follow the frame of a binary call.
+     */
+    transient List<BulkData> attachments;
+
     RMICallInfo(String className, String methodName, Object[] args) {
         this.className = className;
         this.methodName = methodName;
         this.args = args;
     }
+
+    RMICallInfo(String className, Method method, Object[] args) {
+        this(className, method.getName(), args);
+        this.methodId = RMIHelper.methodId(method);
+        this.methodHash = RMIHelper.methodHash(this.methodId);
+        this.parameterTypes = RMIHelper.parameterTypes(method);
+    }
+
+    /**
+     * Returns a copy of the call, which can be sent over another connection
+     * while this one is in flight.
+     */
+    RMICallInfo copy() {
+        RMICallInfo copy = new RMICallInfo(className, methodName, args);
+        copy.methodId = methodId;
+        copy.methodHash = methodHash;
+        copy.deadline = deadline;
+        copy.parameterTypes = parameterTypes;
+        return copy;
+    }
 }
 
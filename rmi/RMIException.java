@@ -3,6 +3,8 @@ package rmi;
 /** RMI exceptions. */
 public class RMIException extends Exception
 {
+    private static final long serialVersionUID = -5373364859058750880L;
+
     /** Creates an <code>RMIException</code> with the given message string. */
     public RMIException(String message)
     {
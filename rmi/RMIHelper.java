@@ -2,6 +2,9 @@ package rmi;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Contains common methods for skeleton and proxy
@@ -10,6 +13,11 @@ public class RMIHelper {
     public final static String DEFAULT_HOST = "localhost";
     public final static int DEFAULT_PORT = 7778;
 
+    private final static ConcurrentHashMap<Method, String> methodIds =
+            new ConcurrentHashMap<Method, String>();
+    private final static ConcurrentHashMap<Method, Class<?>[]> parameterTypes =
+            new ConcurrentHashMap<Method, Class<?>[]>();
+
     /**
      * Checks whether all public methods of an interface
      * throw RMIException
@@ -36,6 +44,138 @@ public class RMIHelper {
             if (!throwsRMI) {
                 throw new Error("Some methods of class do not throw RMI exception");
             }
+
+            validateAnnotations(m);
+        }
+    }
+
+    /**
+     * Checks whether all public methods of an asynchronous companion
+     * interface return CompletableFuture
+     */
+    public static <T> void validateAsyncInterface(Class<T> c) {
+        if (!c.isInterface()) {
+            throw new Error("Argument must be an interface");
+        }
+
+        for (Method m : c.getDeclaredMethods()) {
+            if (!Modifier.isPublic(m.getModifiers())) {
+                continue;
+            }
+
+            if (m.getReturnType() != CompletableFuture.class) {
+                throw new Error("Some methods of class do not return CompletableFuture");
+            }
+
+            validateAnnotations(m);
+        }
+    }
+
+    /**
+     * Checks that the results of a method marked <code>Cacheable</code> can
+     * be cached, those of a method whose calls are coalesced shared, and
+     * that retries are configured sensibly.
+     */
+    private static void validateAnnotations(Method m) {
+        Cacheable cacheable = m.getAnnotation(Cacheable.class);
+        Idempotent idempotent = m.getAnnotation(Idempotent.class);
+        Retry retry = m.getAnnotation(Retry.class);
+        boolean iterator = RemoteIterator.class.isAssignableFrom(m.getReturnType());
+
+        if (cacheable != null) {
+            if (cacheable.ttl() <= 0 || cacheable.maxEntries() <= 0) {
+                throw new Error("Method " + m.getName() + " has an invalid cache configuration");
+            }
+
+            if (m.getReturnType() == void.class || iterator) {
+                throw new Error("Results of method " + m.getName() + " cannot be cached");
+            }
+        }
+
+        if (idempotent != null && idempotent.coalesce() && iterator) {
+            throw new Error("Calls to method " + m.getName() + " cannot be coalesced");
+        }
+
+        if (retry != null && (retry.attempts() <= 0 || retry.backoff() < 0
+                || retry.maxBackoff() < retry.backoff())) {
+            throw new Error("Method " + m.getName() + " has an invalid retry configuration");
+        }
+    }
+
+    /**
+     * Returns the identifier of a remote method: its name followed by its
+     * parameter types, such as <code>ping(int)</code>. Overloads get
+     * distinct identifiers, and a synchronous interface and its asynchronous
+     * companion give the same identifier to corresponding methods.
+     */
+    static String methodId(Method m) {
+        String id = methodIds.get(m);
+
+        if (id == null) {
+            StringBuilder builder = new StringBuilder(m.getName()).append('(');
+            Class[] parameters = m.getParameterTypes();
+
+            for (int i = 0; i < parameters.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+
+                builder.append(parameters[i].getTypeName());
+            }
+
+            id = builder.append(')').toString();
+            methodIds.put(m, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Returns the parameter types of a method without copying them on every
+     * call, as <code>Method.getParameterTypes</code> does. The returned array
+     * must not be modified.
+     */
+    static Class<?>[] parameterTypes(Method m) {
+        Class<?>[] types = parameterTypes.get(m);
+
+        if (types == null) {
+            types = m.getParameterTypes();
+            parameterTypes.put(m, types);
+        }
+
+        return types;
+    }
+
+    /**
+     * Returns the numeric id of a remote method, a 64-bit FNV-1a hash of its
+     * method id, sent in place of the method id by the binary protocol.
+     */
+    static long methodHash(String methodId) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < methodId.length(); i++) {
+            hash ^= methodId.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * Returns a factory of virtual threads, or null if the runtime
+     * does not support them. Virtual threads are looked up reflectively,
+     * so that the library still builds and runs on older runtimes.
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // preview builds without --enable-preview
+            return null;
         }
     }
 
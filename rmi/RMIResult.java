@@ -1,12 +1,47 @@
 package rmi;
 
 import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.List;
 
 /**
  * Wrapper for RMI result that allows to easily distinguish between
  * regular operation result and en exception.
+ * The request id is copied from the <code>RMICallInfo</code> of the call,
+ * since results may arrive in a different order than calls were sent.
  */
 public class RMIResult implements Serializable {
+    /**
+     * Version of the serialized form, pinned to the one of the last release
+     * without the binary protocol, so that its stubs and skeletons can still
+     * exchange results with this one. Fields added since are ignored by
+     * earlier versions.
+     */
+    private static final long serialVersionUID = 3165212730816940530L;
+
+    public long requestId;
     public Object value;
     public Exception exception;
+
+    /**
+     * Whether the result is sent in the binary encoding of its call.
+     */
+    transient boolean binary;
+
+    /**
+     * Bulk data values whose bytes follow the frame of a binary result.
+     */
+    transient List<BulkData> attachments;
+
+    /**
+     * Address of the skeleton that sent the result, which for calls to
+     * replicas may not be the replica the call was first sent to.
+     */
+    transient InetSocketAddress source;
+
+    /**
+     * Metrics of the method that produced the result, which count its size
+     * once it is encoded, or <code>null</code>.
+     */
+    transient MethodMetrics metrics;
 }
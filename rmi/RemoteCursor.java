@@ -0,0 +1,180 @@
+package rmi;
+
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Client side of a remote iterator: the handle that a skeleton sends in place
+ * of an iterator, which fetches the elements from the skeleton's cursor.
+ * <p>
+ * <p>
+ * The stub that receives the handle attaches it to the address of the
+ * skeleton, which requests the first chunk right away. Every time a chunk
+ * arrives, the next one is requested, so that the caller rarely waits while
+ * no more than two chunks are held in memory.
+ * <p>
+ * <p>
+ * Every chunk must arrive within the timeout of the stub, or within
+ * <code>DEFAULT_FETCH_TIMEOUT</code> if the stub has none, so that a chunk
+ * lost on the way fails the iteration instead of blocking it.
+ */
+class RemoteCursor<E> implements RemoteIterator<E>, Serializable {
+    private static final long serialVersionUID = 8928405802561133220L;
+
+    /**
+     * Number of elements requested in each chunk.
+     */
+    final static int CHUNK_SIZE = 256;
+
+    /**
+     * Time allowed for a chunk to arrive, in milliseconds, when the stub that
+     * received the handle has no timeout.
+     */
+    final static long DEFAULT_FETCH_TIMEOUT = 30000;
+
+    private final static Method NEXT = cursorMethod("next", long.class, int.class);
+    private final static Method CLOSE = cursorMethod("close", long.class);
+
+    private final long cursorId;
+
+    /**
+     * The following fields are guarded by the cursor's lock.
+     */
+    private transient InetSocketAddress address;
+    private transient long timeout;
+    private transient ArrayDeque<Object> buffer;
+    private transient CompletableFuture<RMIResult> pending;
+    private transient boolean last;
+    private transient boolean closed;
+
+    RemoteCursor(long cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    private static Method cursorMethod(String name, Class<?>... types) {
+        try {
+            return CursorService.class.getMethod(name, types);
+        } catch (NoSuchMethodException e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * Creates a call to a method of the skeleton's cursor service.
+     */
+    private static RMICallInfo call(Method method, Object... args) {
+        RMICallInfo info = new RMICallInfo(CursorService.class.getName(), method, args);
+        info.methodId = CursorService.METHOD_PREFIX + info.methodId;
+        info.methodHash = RMIHelper.methodHash(info.methodId);
+        return info;
+    }
+
+    /**
+     * Connects the handle to the skeleton that sent it, and requests the
+     * first chunk.
+     *
+     * @param timeout The timeout of the stub in milliseconds, or 0 for none.
+     */
+    synchronized void attach(InetSocketAddress address, long timeout) {
+        // a shared result is attached by every caller
+        if (this.address != null) {
+            return;
+        }
+
+        this.address = address;
+        this.timeout = timeout > 0 ? timeout : DEFAULT_FETCH_TIMEOUT;
+        this.buffer = new ArrayDeque<Object>();
+        fetch();
+    }
+
+    private void fetch() {
+        RMICallInfo info = call(NEXT, cursorId, CHUNK_SIZE);
+        info.deadline = Deadline.expires(timeout);
+        pending = ConnectionPool.forAddress(address).callAsync(info);
+    }
+
+    public synchronized boolean hasNext() {
+        if (address == null) {
+            throw new RemoteIterationException(
+                    new RMIException("Remote iterator is not connected to a server"));
+        }
+
+        while (buffer.isEmpty() && !last) {
+            receive();
+        }
+
+        return !buffer.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return (E) buffer.poll();
+    }
+
+    /**
+     * Waits for the chunk requested last, and requests the following one.
+     */
+    private void receive() {
+        RMIResult result;
+
+        try {
+            result = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteIterationException(
+                    new RMIException("Interrupted while waiting for elements", e));
+        } catch (ExecutionException e) {
+            last = true;
+            throw new RemoteIterationException(
+                    new RMIException("Could not fetch elements", e.getCause()));
+        }
+
+        if (result.exception != null) {
+            last = true;
+
+            if (result.exception instanceof InvocationTargetException) {
+                throw new RemoteIterationException(result.exception.getCause());
+            }
+
+            throw new RemoteIterationException(result.exception);
+        }
+
+        Object[] chunk = (Object[]) result.value;
+        Collections.addAll(buffer, (Object[]) chunk[0]);
+        last = (Boolean) chunk[1];
+
+        if (!last) {
+            fetch();
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        if (buffer != null) {
+            buffer.clear();
+        }
+
+        // the skeleton released the cursor after sending the last chunk
+        if (address != null && !last) {
+            ConnectionPool.forAddress(address).callAsync(call(CLOSE, cursorId));
+        }
+
+        last = true;
+    }
+}
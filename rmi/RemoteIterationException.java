@@ -0,0 +1,16 @@
+package rmi;
+
+/**
+ * Thrown by a <code>RemoteIterator</code> when the next chunk of elements
+ * cannot be fetched from the server. The cause is the
+ * <code>RMIException</code> or the exception thrown by the server-side
+ * iterator.
+ */
+public class RemoteIterationException extends RuntimeException {
+    private static final long serialVersionUID = 3865643387912293098L;
+
+    /** Creates a <code>RemoteIterationException</code> from the given cause. */
+    public RemoteIterationException(Throwable cause) {
+        super(cause);
+    }
+}
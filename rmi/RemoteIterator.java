@@ -0,0 +1,87 @@
+package rmi;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Iterator over a result streamed from a server in chunks.
+ * <p>
+ * <p>
+ * A remote method may declare <code>RemoteIterator</code> as its return type
+ * to return a large or unbounded sequence of elements. The server creates the
+ * iterator, usually with one of the <code>of</code> methods. Instead of
+ * sending the elements, the skeleton keeps the iterator as a cursor and sends
+ * the client a handle to it. The stub returns the handle to the caller as a
+ * <code>RemoteIterator</code> that fetches the elements a chunk at a time
+ * while the caller iterates, requesting the next chunk before the current one
+ * has been consumed. At most two chunks are held on each side, whatever the
+ * number of elements.
+ * <p>
+ * <p>
+ * Only iterators returned directly by remote methods are streamed. When a
+ * chunk cannot be fetched, iteration fails with a
+ * <code>RemoteIterationException</code>. Callers that stop iterating early
+ * should call <code>close</code> to release the cursor on the server; cursors
+ * left unused for the idle timeout of the skeleton are released
+ * automatically, as are all cursors when the skeleton stops.
+ *
+ * @param <E> The type of the elements, which must be serializable.
+ */
+public interface RemoteIterator<E> extends Iterator<E>, Closeable {
+    /**
+     * Releases the iterator. On the server, this closes the underlying
+     * iterator if it is closeable; on the client, it releases the cursor.
+     */
+    @Override
+    void close();
+
+    /**
+     * Creates a remote iterator over the elements of an iterator. The
+     * iterator is closed along with the remote iterator if it implements
+     * <code>AutoCloseable</code>.
+     */
+    static <E> RemoteIterator<E> of(final Iterator<? extends E> iterator) {
+        return new RemoteIterator<E>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public E next() {
+                return iterator.next();
+            }
+
+            public void close() {
+                if (iterator instanceof AutoCloseable) {
+                    try {
+                        ((AutoCloseable) iterator).close();
+                    } catch (Exception e) {
+                        // nothing more can be done about it
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a remote iterator over the elements of a stream, which is
+     * closed along with the remote iterator.
+     */
+    static <E> RemoteIterator<E> of(final Stream<? extends E> stream) {
+        final Iterator<? extends E> iterator = stream.iterator();
+
+        return new RemoteIterator<E>() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public E next() {
+                return iterator.next();
+            }
+
+            public void close() {
+                stream.close();
+            }
+        };
+    }
+}
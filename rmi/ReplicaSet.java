@@ -0,0 +1,176 @@
+package rmi;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Addresses of the replicas of a remote object, and the policy choosing one of
+ * them for each call.
+ * <p>
+ * <p>
+ * The set itself only holds the addresses: calls in flight and the circuit
+ * breaker of each replica are kept by the connection pool of its address, so
+ * that all stubs connecting to a replica share what they know about it. A
+ * replica is ejected while its breaker would reject calls.
+ */
+class ReplicaSet implements Serializable {
+    private static final long serialVersionUID = 3847825808820471897L;
+
+    private final InetSocketAddress[] addresses;
+    private final LoadBalancing policy;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ReplicaSet(List<InetSocketAddress> addresses, LoadBalancing policy) {
+        this.addresses = addresses.toArray(new InetSocketAddress[0]);
+        this.policy = policy;
+    }
+
+    /**
+     * Returns the address that identifies the set, which is the first one.
+     */
+    InetSocketAddress primary() {
+        return addresses[0];
+    }
+
+    /**
+     * Chooses the replica the next call is sent to.
+     */
+    InetSocketAddress select() {
+        if (addresses.length == 1) {
+            return addresses[0];
+        }
+
+        switch (policy) {
+            case ROUND_ROBIN:
+                return roundRobin();
+            case LEAST_OUTSTANDING:
+                return leastOutstanding(ThreadLocalRandom.current().nextInt(addresses.length));
+            default:
+                return powerOfTwoChoices();
+        }
+    }
+
+    /**
+     * Chooses the replica a backup of a call sent to <code>excluded</code> is
+     * sent to: the one with the fewest calls in flight among those not
+     * ejected.
+     *
+     * @return The replica, or <code>null</code> if there is none.
+     */
+    InetSocketAddress alternative(InetSocketAddress excluded) {
+        int start = ThreadLocalRandom.current().nextInt(addresses.length);
+        InetSocketAddress best = null;
+        ConnectionPool bestPool = null;
+
+        for (int i = 0; i < addresses.length; i++) {
+            InetSocketAddress address = addresses[(start + i) % addresses.length];
+            ConnectionPool pool = ConnectionPool.forAddress(address);
+
+            if (address.equals(excluded) || pool.isEjected()) {
+                continue;
+            }
+
+            if (bestPool == null || pool.outstandingCount() < bestPool.outstandingCount()) {
+                best = address;
+                bestPool = pool;
+            }
+        }
+
+        return best;
+    }
+
+    int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Returns the next replica in turn that has not been ejected.
+     */
+    private InetSocketAddress roundRobin() {
+        int start = next.getAndIncrement();
+
+        for (int i = 0; i < addresses.length; i++) {
+            InetSocketAddress address = addresses[Math.floorMod(start + i, addresses.length)];
+
+            if (!ConnectionPool.forAddress(address).isEjected()) {
+                return address;
+            }
+        }
+
+        return addresses[Math.floorMod(start, addresses.length)];
+    }
+
+    /**
+     * Returns the replica with the fewest calls in flight, preferring
+     * replicas that have not been ejected. Ties go to the first replica found
+     * from <code>start</code> on, so that idle replicas share the calls.
+     */
+    private InetSocketAddress leastOutstanding(int start) {
+        int best = -1;
+        ConnectionPool bestPool = null;
+
+        for (int i = 0; i < addresses.length; i++) {
+            int index = (start + i) % addresses.length;
+            ConnectionPool pool = ConnectionPool.forAddress(addresses[index]);
+
+            if (bestPool == null || isBetter(pool, bestPool)) {
+                best = index;
+                bestPool = pool;
+            }
+        }
+
+        return addresses[best];
+    }
+
+    private InetSocketAddress powerOfTwoChoices() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(addresses.length);
+        int second = random.nextInt(addresses.length - 1);
+
+        if (second >= first) {
+            second++;
+        }
+
+        ConnectionPool firstPool = ConnectionPool.forAddress(addresses[first]);
+        ConnectionPool secondPool = ConnectionPool.forAddress(addresses[second]);
+
+        // other replicas may still be healthy
+        if (firstPool.isEjected() && secondPool.isEjected()) {
+            return leastOutstanding(first);
+        }
+
+        return isBetter(secondPool, firstPool) ? addresses[second] : addresses[first];
+    }
+
+    private static boolean isBetter(ConnectionPool pool, ConnectionPool other) {
+        if (pool.isEjected() != other.isEjected()) {
+            return !pool.isEjected();
+        }
+
+        return pool.outstandingCount() < other.outstandingCount();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ReplicaSet)) {
+            return false;
+        }
+
+        ReplicaSet set = (ReplicaSet) other;
+        return Arrays.equals(set.addresses, this.addresses) && set.policy == this.policy;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(addresses) + policy.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(addresses) + " (" + policy + ")";
+    }
+}
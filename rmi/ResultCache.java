@@ -0,0 +1,143 @@
+package rmi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Results of one <code>Cacheable</code> method, by arguments.
+ * <p>
+ * <p>
+ * Lookups do not lock. Entries are kept in a queue in the order they were
+ * added, and evicted with the clock algorithm: an entry that has been used
+ * since it last reached the head of the queue is moved to its tail instead,
+ * which approximates evicting the least recently used entry.
+ */
+class ResultCache {
+    /**
+     * Returned by <code>get</code> when no result is cached, since
+     * <code>null</code> may be a cached result.
+     */
+    final static Object MISS = new Object();
+
+    private final String methodId;
+    private final long ttl;
+    private final int maxEntries;
+    private final CacheStatistics statistics;
+    private final ConcurrentHashMap<CallKey, Entry> entries = new ConcurrentHashMap<CallKey, Entry>();
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    ResultCache(String methodId, Cacheable cacheable, CacheStatistics statistics) {
+        this.methodId = methodId;
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(cacheable.ttl());
+        this.maxEntries = cacheable.maxEntries();
+        this.statistics = statistics;
+    }
+
+    /**
+     * Returns the cached result of a call, or <code>MISS</code>.
+     */
+    Object get(Object[] args) {
+        CallKey key = new CallKey(methodId, args);
+        Entry entry = entries.get(key);
+
+        if (entry != null && entry.expired(System.nanoTime())) {
+            if (entries.remove(key, entry)) {
+                statistics.expired();
+            }
+
+            entry = null;
+        }
+
+        if (entry == null) {
+            statistics.miss();
+            return MISS;
+        }
+
+        entry.referenced = true;
+        statistics.hit();
+        return entry.value;
+    }
+
+    /**
+     * Caches the result of a call, evicting other results if the cache is
+     * full.
+     */
+    void put(Object[] args, Object value) {
+        // iterators can only be consumed once
+        if (value instanceof RemoteIterator) {
+            return;
+        }
+
+        CallKey key = new CallKey(methodId, args);
+        Entry entry = new Entry(key, value, System.nanoTime() + ttl);
+        entries.put(key, entry);
+        queue.offer(entry);
+        queued.incrementAndGet();
+
+        evict();
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes entries from the head of the queue until the cache is within
+     * its bounds. The queue may also hold entries already replaced or
+     * removed, which are dropped; it is kept below twice the size of the
+     * cache.
+     */
+    private void evict() {
+        long now = System.nanoTime();
+
+        while (entries.size() > maxEntries || queued.get() > 2 * maxEntries) {
+            Entry entry = queue.poll();
+
+            if (entry == null) {
+                return;
+            }
+
+            queued.decrementAndGet();
+
+            if (entries.get(entry.key) != entry) {
+                continue;
+            }
+
+            if (entry.expired(now)) {
+                if (entries.remove(entry.key, entry)) {
+                    statistics.expired();
+                }
+            } else if (entry.referenced) {
+                entry.referenced = false;
+                queue.offer(entry);
+                queued.incrementAndGet();
+            } else if (entries.remove(entry.key, entry)) {
+                statistics.evicted();
+            }
+        }
+    }
+
+    private static class Entry {
+        final CallKey key;
+        final Object value;
+        final long expires;
+        volatile boolean referenced;
+
+        Entry(CallKey key, Object value, long expires) {
+            this.key = key;
+            this.value = value;
+            this.expires = expires;
+        }
+
+        boolean expired(long now) {
+            return now - expires >= 0;
+        }
+    }
+}
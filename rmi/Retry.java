@@ -0,0 +1,54 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a remote interface whose calls are repeated when they
+ * could not be performed.
+ * <p>
+ * <p>
+ * A call that failed before it was sent, for example because no connection
+ * to the skeleton could be opened, is always repeated, since the server never
+ * saw it. A call that failed after it was sent, for example because the
+ * connection was lost while waiting for the result, may already have been
+ * executed, and is repeated only if the method is also marked
+ * <code>Idempotent</code>. Exceptions thrown by the remote method are never
+ * retried, and neither are calls whose deadline has passed.
+ * <p>
+ * <p>
+ * Attempts are spaced with exponential backoff and full jitter: before the
+ * <em>n</em>th retry, the stub waits a random time of up to
+ * <code>backoff</code> times 2<sup><em>n</em>-1</sup> milliseconds, but no
+ * more than <code>maxBackoff</code>. Stubs connecting to replicas send each
+ * retry to another replica when one is available.
+ * <p>
+ * <p>
+ * So that retries cannot multiply the load on a struggling server, they are
+ * drawn from a budget shared by all stubs: every call to a method marked
+ * <code>Retry</code> adds <code>ConnectionPool.RETRY_RATIO</code> of a retry
+ * to the budget, which holds at most <code>ConnectionPool.RETRY_MAX_BURST</code>
+ * retries. When the budget is spent, failures are reported right away.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Retry {
+    /**
+     * Largest number of attempts, including the first one.
+     */
+    int attempts() default 3;
+
+    /**
+     * Upper bound, in milliseconds, of the wait before the first retry.
+     */
+    long backoff() default 50;
+
+    /**
+     * Upper bound, in milliseconds, of the wait before any retry.
+     */
+    long maxBackoff() default 2000;
+}
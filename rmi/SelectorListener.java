@@ -0,0 +1,674 @@
+package rmi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Listener of the <code>NIO</code> skeleton engine.
+ * <p>
+ * <p>
+ * The listening thread accepts connections with a selector and assigns them
+ * round-robin to a fixed set of event loops. Each event loop owns a selector
+ * over the non-blocking channels assigned to it. It reads frames as they
+ * arrive, decodes the calls they carry and hands them to the skeleton's
+ * service threads; an idle connection therefore costs no thread at all.
+ * <p>
+ * <p>
+ * Service threads write results to the channel directly when nothing else is
+ * queued for it. Results that do not fit into the socket buffer are queued,
+ * and written by the event loop when the channel becomes writable.
+ */
+class SelectorListener implements Skeleton.Listener {
+    /**
+     * Interval at which event loops check for idle connections, in
+     * milliseconds.
+     */
+    private final static long IDLE_CHECK_INTERVAL = 1000;
+
+    private final static int INITIAL_BUFFER_SIZE = 8192;
+
+    private final Skeleton<?> skeleton;
+    private final ServerSocketChannel serverChannel;
+    private final Selector acceptSelector;
+    private final EventLoop[] loops;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean stopping;
+
+    /**
+     * Binds the listening channel.
+     *
+     * @throws IOException If the channel cannot be bound.
+     */
+    SelectorListener(Skeleton<?> skeleton, InetSocketAddress address, int eventLoops)
+    throws IOException {
+        this.skeleton = skeleton;
+        this.serverChannel = ServerSocketChannel.open();
+
+        try {
+            // allows restarting on the same port while connections of the
+            // previous run are still in TIME_WAIT
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(new InetSocketAddress(address.getPort()));
+            serverChannel.configureBlocking(false);
+            this.acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+            this.loops = new EventLoop[eventLoops];
+
+            for (int i = 0; i < eventLoops; i++) {
+                loops[i] = new EventLoop();
+            }
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+    }
+
+    public void run() {
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+
+        int next = 0;
+
+        while (!stopping) {
+            try {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+
+                SocketChannel channel;
+
+                while ((channel = serverChannel.accept()) != null) {
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                }
+            } catch (ClosedChannelException e) {
+                // closed by stop()
+                break;
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (stopping || !skeleton.listen_error(e)) {
+                    break;
+                }
+            }
+        }
+
+        try {
+            acceptSelector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+        }
+
+        skeleton.stopped(null);
+    }
+
+    public void stop() {
+        stopping = true;
+
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+        }
+
+        acceptSelector.wakeup();
+    }
+
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    public int connectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Thread serving the channels assigned to it by the listening thread.
+     */
+    private class EventLoop extends Thread {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private int open;
+        private boolean shuttingDown;
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        /**
+         * Assigns a newly accepted channel to this loop.
+         */
+        void register(final SocketChannel channel) {
+            execute(new Runnable() {
+                public void run() {
+                    try {
+                        channel.configureBlocking(false);
+                        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                        SelectorConnection connection = new SelectorConnection(EventLoop.this, channel);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                        open++;
+                        connectionCount.incrementAndGet();
+
+                        // connections accepted while stopping are closed right away
+                        if (shuttingDown) {
+                            connection.stopReading();
+                        }
+                    } catch (IOException e) {
+                        try {
+                            channel.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+
+        void shutdown() {
+            execute(new Runnable() {
+                public void run() {
+                    shuttingDown = true;
+
+                    for (SelectionKey key : selector.keys()) {
+                        ((SelectorConnection) key.attachment()).stopReading();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Runs a task in this loop's thread.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        public void run() {
+            long lastIdleCheck = System.currentTimeMillis();
+
+            try {
+                while (!shuttingDown || open > 0) {
+                    selector.select(IDLE_CHECK_INTERVAL);
+
+                    Runnable task;
+
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        SelectorConnection connection = (SelectorConnection) key.attachment();
+
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+
+                    if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                        lastIdleCheck = now;
+                        closeIdle(now);
+                    }
+                }
+            } catch (IOException e) {
+                skeleton.service_error(new RMIException(e));
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((SelectorConnection) key.attachment()).close();
+                }
+
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        /**
+         * Stops reading from connections without calls in flight that stayed
+         * silent for longer than the skeleton's idle timeout.
+         */
+        private void closeIdle(long now) {
+            long idleTimeout = skeleton.getIdleTimeout();
+
+            if (idleTimeout == 0) {
+                return;
+            }
+
+            for (SelectionKey key : selector.keys()) {
+                SelectorConnection connection = (SelectorConnection) key.attachment();
+
+                if (connection.isIdle() && now - connection.lastRead > idleTimeout) {
+                    connection.stopReading();
+                }
+            }
+        }
+
+        void closed() {
+            open--;
+            connectionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Non-blocking client connection served by an event loop.
+     */
+    private class SelectorConnection implements ServiceConnection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private long lastRead = System.currentTimeMillis();
+        private boolean reading = true;
+
+        /**
+         * The event loop holds one reference to the connection while it reads
+         * calls from it, and each call being executed holds another.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        /**
+         * Results waiting for the channel to become writable. Guarded by the
+         * connection's lock, as are <code>closing</code> and
+         * <code>closed</code>.
+         */
+        private final ArrayDeque<PendingWrite> writeQueue = new ArrayDeque<PendingWrite>();
+        private boolean closing;
+        private boolean closed;
+
+        /**
+         * Call whose bulk data is still being read, the index of the bulk
+         * data being read and the buffer receiving its bytes.
+         */
+        private RMICallInfo pendingCall;
+        private int pendingAttachment;
+        private ByteBuffer attachmentTarget;
+
+        SelectorConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /**
+         * Reads available bytes and hands every complete call to the skeleton.
+         */
+        void onReadable() {
+            try {
+                if (pendingCall != null) {
+                    readBuffer.flip();
+                    boolean complete = readAttachments();
+                    readBuffer.compact();
+
+                    if (!complete || !submit(pendingCall(null))) {
+                        return;
+                    }
+                }
+
+                int read = channel.read(readBuffer);
+
+                if (read < 0) {
+                    // client closed the connection
+                    stopReading();
+                    return;
+                }
+
+                lastRead = System.currentTimeMillis();
+                readBuffer.flip();
+
+                while (readBuffer.remaining() >= Frames.HEADER_LENGTH) {
+                    int start = readBuffer.position();
+                    int length = readBuffer.getInt(start);
+                    Frames.checkLength(length);
+
+                    if (readBuffer.remaining() < Frames.HEADER_LENGTH + length) {
+                        break;
+                    }
+
+                    RMICallInfo info = (RMICallInfo) Frames.decode(
+                            readBuffer.array(),
+                            readBuffer.arrayOffset() + start + Frames.HEADER_LENGTH,
+                            length,
+                            skeleton.methodsByHash(),
+                            skeleton.getCompressionMetrics());
+                    readBuffer.position(start + Frames.HEADER_LENGTH + length);
+                    info.size = Frames.size(length, Frames.attachments(info));
+
+                    if (!Frames.attachments(info).isEmpty()) {
+                        pendingCall(info);
+
+                        // the rest of the bulk data is read straight from
+                        // the channel when it arrives
+                        if (!readAttachments()) {
+                            readBuffer.compact();
+                            return;
+                        }
+
+                        pendingCall(null);
+                    }
+
+                    if (!submit(info)) {
+                        return;
+                    }
+                }
+
+                readBuffer.compact();
+                ensureCapacity();
+            } catch (IOException e) {
+                // connection was reset by the client
+                close();
+            } catch (Exception e) {
+                skeleton.service_error(new RMIException(e));
+                close();
+            }
+        }
+
+        /**
+         * Hands a call to the skeleton.
+         *
+         * @return <code>false</code> if the skeleton is being stopped, in which
+         * case the connection stops reading.
+         */
+        private boolean submit(RMICallInfo info) {
+            references.incrementAndGet();
+
+            try {
+                skeleton.execute(this, info);
+                return true;
+            } catch (RejectedExecutionException e) {
+                release();
+                stopReading();
+                return false;
+            }
+        }
+
+        /**
+         * Starts reading the bulk data of a call, or clears the call whose
+         * bulk data has been read.
+         *
+         * @return The call previously pending.
+         */
+        private RMICallInfo pendingCall(RMICallInfo info) {
+            RMICallInfo previous = pendingCall;
+            pendingCall = info;
+            pendingAttachment = 0;
+            attachmentTarget = null;
+            return previous;
+        }
+
+        /**
+         * Reads the bulk data of the pending call, first from the bytes left
+         * in the read buffer and then directly from the channel.
+         *
+         * @return <code>true</code> once all of the bulk data has been read.
+         */
+        private boolean readAttachments() throws IOException {
+            List<BulkData> attachments = Frames.attachments(pendingCall);
+
+            while (pendingAttachment < attachments.size()) {
+                if (attachmentTarget == null) {
+                    attachmentTarget = attachments.get(pendingAttachment).target(
+                            skeleton.getBulkAllocator());
+                }
+
+                int buffered = Math.min(readBuffer.remaining(), attachmentTarget.remaining());
+
+                if (buffered > 0) {
+                    ByteBuffer bytes = readBuffer.slice();
+                    bytes.limit(buffered);
+                    attachmentTarget.put(bytes);
+                    readBuffer.position(readBuffer.position() + buffered);
+                }
+
+                while (attachmentTarget.hasRemaining()) {
+                    int read = channel.read(attachmentTarget);
+
+                    if (read < 0) {
+                        throw new EOFException("Connection closed while reading bulk data");
+                    }
+
+                    if (read == 0) {
+                        return false;
+                    }
+
+                    lastRead = System.currentTimeMillis();
+                }
+
+                pendingAttachment++;
+                attachmentTarget = null;
+            }
+
+            return true;
+        }
+
+        /**
+         * Grows the read buffer when the next frame does not fit into it, and
+         * shrinks it back once a large frame has been consumed.
+         */
+        private void ensureCapacity() {
+            if (readBuffer.position() == 0 && readBuffer.capacity() > INITIAL_BUFFER_SIZE) {
+                readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                return;
+            }
+
+            if (readBuffer.position() < Frames.HEADER_LENGTH) {
+                return;
+            }
+
+            int needed = Frames.HEADER_LENGTH + readBuffer.getInt(0);
+
+            if (needed > readBuffer.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        }
+
+        /**
+         * Stops reading calls. The connection is closed once results of the
+         * calls being executed have been sent.
+         */
+        void stopReading() {
+            if (!reading) {
+                return;
+            }
+
+            reading = false;
+
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+
+            release();
+        }
+
+        boolean isIdle() {
+            return reading && references.get() == 1;
+        }
+
+        public void respond(RMIResult result) {
+            Frames.Buffer frame;
+
+            try {
+                frame = skeleton.encode(result);
+            } catch (IOException e) {
+                skeleton.service_error(new RMIException(e));
+                return;
+            }
+
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+
+                boolean idle = writeQueue.isEmpty();
+                writeQueue.add(new PendingWrite(
+                        BulkData.wrap(ByteBuffer.wrap(frame.array(), 0, frame.size()))));
+
+                for (BulkData data : frame.attachments) {
+                    writeQueue.add(new PendingWrite(data));
+                }
+
+                if (idle) {
+                    try {
+                        if (flush()) {
+                            return;
+                        }
+                    } catch (IOException e) {
+                        // client went away before the result was ready
+                        discardWrites();
+                        return;
+                    }
+                }
+            }
+
+            loop.execute(new Runnable() {
+                public void run() {
+                    if (key.isValid()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Writes queued results once the channel can accept more data.
+         */
+        void onWritable() {
+            synchronized (this) {
+                try {
+                    if (!flush()) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+                if (closing) {
+                    close();
+                }
+            }
+        }
+
+        /**
+         * Writes queued results and their bulk data until the channel accepts
+         * no more bytes. Must be called with the connection's lock held.
+         *
+         * @return <code>true</code> if the queue has been emptied.
+         */
+        private boolean flush() throws IOException {
+            while (!writeQueue.isEmpty()) {
+                PendingWrite write = writeQueue.peek();
+
+                // files stay open until all of their bytes are written
+                if (write.transfer == null) {
+                    write.transfer = write.data.transfer();
+                }
+
+                while (!write.transfer.isDone()) {
+                    if (write.transfer.writeTo(channel) == 0) {
+                        return false;
+                    }
+                }
+
+                write.transfer.close();
+                writeQueue.poll();
+            }
+
+            return true;
+        }
+
+        /**
+         * Drops the queued writes, closing the files being sent. Must be
+         * called with the connection's lock held.
+         */
+        private void discardWrites() {
+            for (PendingWrite write : writeQueue) {
+                if (write.transfer != null) {
+                    try {
+                        write.transfer.close();
+                    } catch (IOException e) {
+                    }
+                }
+            }
+
+            writeQueue.clear();
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                loop.execute(new Runnable() {
+                    public void run() {
+                        closeWhenFlushed();
+                    }
+                });
+            }
+        }
+
+        private synchronized void closeWhenFlushed() {
+            if (writeQueue.isEmpty()) {
+                close();
+            } else {
+                closing = true;
+            }
+        }
+
+        /**
+         * Closes the channel. Must be called in the event loop's thread.
+         */
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            discardWrites();
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+
+            loop.closed();
+        }
+    }
+
+    /**
+     * Result frame or bulk data waiting to be written, with its transfer once
+     * writing has started.
+     */
+    private static class PendingWrite {
+        final BulkData data;
+        BulkData.Transfer transfer;
+
+        PendingWrite(BulkData data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package rmi;
+
+/**
+ * Skeleton-side connection from which calls are read and to which their
+ * results are sent.
+ * <p>
+ * <p>
+ * A connection stays open while calls read from it are being executed. Each
+ * call handed to the skeleton holds a reference to its connection, which the
+ * service thread releases after sending the result.
+ */
+interface ServiceConnection {
+    /**
+     * Sends the result of a call. May be called concurrently by several
+     * service threads.
+     */
+    void respond(RMIResult result);
+
+    /**
+     * Releases the reference held by a call.
+     */
+    void release();
+}
@@ -0,0 +1,268 @@
+package rmi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of service threads executing calls for a skeleton.
+ * <p>
+ * <p>
+ * Threads are started on demand, up to <code>maxThreads</code>, and exit
+ * after staying idle for <code>keepAlive</code> milliseconds. Calls arriving
+ * while all threads are busy wait in a queue of at most
+ * <code>queueCapacity</code> calls. When the queue is full as well, calls are
+ * rejected immediately, so that a burst of clients cannot exhaust memory and
+ * threads.
+ * <p>
+ * <p>
+ * Calls that are <code>Sheddable</code> are dropped instead of executed when
+ * they can no longer complete before their deadline: when a thread is about
+ * to start them, and, to make room, when the queue is full. Their clients
+ * have given up on them, so capacity is spent only on calls that still
+ * matter.
+ */
+class ServicePool {
+    private final ThreadFactory threads;
+    private final int maxThreads;
+    private final int queueCapacity;
+    private final long keepAlive;
+
+    /**
+     * Queued calls, and the following fields, are guarded by the pool's lock.
+     */
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+    private int threadCount;
+    private int idleCount;
+    private boolean shutdown;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Call with a deadline, which can be dropped when it is too late to
+     * complete it.
+     */
+    interface Sheddable extends Runnable {
+        /**
+         * Checks whether the call, started at the given value of
+         * <code>System.nanoTime</code>, cannot complete before its deadline.
+         */
+        boolean isLate(long now);
+
+        /**
+         * Answers the call without executing it.
+         */
+        void drop();
+    }
+
+    ServicePool(ThreadFactory threads, int maxThreads, int queueCapacity, long keepAlive) {
+        this.threads = threads;
+        this.maxThreads = maxThreads;
+        this.queueCapacity = queueCapacity;
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * Submits a call for execution.
+     *
+     * @return <code>false</code> if the call was rejected because all threads
+     * are busy and the queue is full.
+     * @throws RejectedExecutionException If the pool has been shut down.
+     */
+    boolean offer(Runnable task) {
+        ArrayList<Sheddable> late = new ArrayList<Sheddable>(0);
+
+        try {
+            return offer(task, late);
+        } finally {
+            drop(late);
+        }
+    }
+
+    private boolean offer(Runnable task, List<Sheddable> late) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Service pool is shut down");
+            }
+
+            if (queue.size() < idleCount) {
+                queue.add(task);
+                notify();
+                return true;
+            }
+
+            if (threadCount >= maxThreads) {
+                if (queue.size() >= queueCapacity) {
+                    removeLate(late);
+                }
+
+                if (queue.size() < queueCapacity) {
+                    queue.add(task);
+                    return true;
+                }
+
+                rejected.incrementAndGet();
+                return false;
+            }
+
+            threadCount++;
+        }
+
+        try {
+            threads.newThread(new Worker(task)).start();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                threadCount--;
+            }
+
+            throw new RejectedExecutionException("Cannot start service thread", e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops accepting calls. Calls already queued are still executed.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    synchronized int queuedCount() {
+        return queue.size();
+    }
+
+    int activeCount() {
+        return active.get();
+    }
+
+    long rejectedCount() {
+        return rejected.get();
+    }
+
+    long completedCount() {
+        return completed.get();
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Removes the queued calls that can no longer complete in time.
+     */
+    private void removeLate(List<Sheddable> late) {
+        long now = System.nanoTime();
+
+        for (Iterator<Runnable> tasks = queue.iterator(); tasks.hasNext(); ) {
+            Runnable task = tasks.next();
+
+            if (task instanceof Sheddable && ((Sheddable) task).isLate(now)) {
+                tasks.remove();
+                late.add((Sheddable) task);
+            }
+        }
+    }
+
+    /**
+     * Answers dropped calls, outside the pool's lock since answering may
+     * block on the connection.
+     */
+    private void drop(List<Sheddable> late) {
+        for (Sheddable task : late) {
+            dropped.incrementAndGet();
+
+            try {
+                task.drop();
+            } catch (RuntimeException e) {
+                // the call reports its own errors
+            }
+        }
+    }
+
+    /**
+     * Waits for the next queued call.
+     *
+     * @return The call, or <code>null</code> if the thread should exit.
+     */
+    private synchronized Runnable take() {
+        long deadline = System.currentTimeMillis() + keepAlive;
+
+        while (queue.isEmpty()) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if (shutdown || remaining <= 0) {
+                threadCount--;
+                return null;
+            }
+
+            idleCount++;
+
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                // checked again at the top of the loop
+            } finally {
+                idleCount--;
+            }
+        }
+
+        return queue.poll();
+    }
+
+    private class Worker implements Runnable {
+        private Runnable first;
+
+        Worker(Runnable first) {
+            this.first = first;
+        }
+
+        public void run() {
+            Runnable task = first;
+            first = null;
+            boolean exited = false;
+
+            try {
+                while (task != null) {
+                    if (task instanceof Sheddable && ((Sheddable) task).isLate(System.nanoTime())) {
+                        drop(Collections.singletonList((Sheddable) task));
+                        task = take();
+                        continue;
+                    }
+
+                    active.incrementAndGet();
+
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // calls report their own errors; the thread stays usable
+                    } finally {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+
+                    task = take();
+                }
+
+                exited = true;
+            } finally {
+                // an Error ended the thread before take() accounted for it
+                if (!exited) {
+                    synchronized (ServicePool.this) {
+                        threadCount--;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,18 @@ import java.lang.NullPointerException;
 import java.net.*;
 import java.io.*;
 import java.lang.reflect.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RMI skeleton
@@ -30,6 +42,48 @@ import java.lang.reflect.*;
  * or <code>service_error</code>.
  */
 public class Skeleton<T> {
+    /**
+     * Default time in milliseconds after which idle client connections are
+     * closed. It exceeds the idle timeout of stub connection pools, so that
+     * stubs normally close idle connections first.
+     */
+    public final static long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    /**
+     * Default limits of the service thread pool. Calls beyond the thread limit
+     * wait in a queue; calls beyond the queue capacity are rejected.
+     */
+    public final static int DEFAULT_MAX_SERVICE_THREADS = 256;
+    public final static int DEFAULT_MAX_VIRTUAL_SERVICE_THREADS = 10000;
+    public final static int DEFAULT_SERVICE_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Time in milliseconds after which idle service threads exit.
+     */
+    private final static long SERVICE_THREAD_KEEP_ALIVE = 60000;
+
+    /**
+     * Number of event loop threads used by the <code>NIO</code> engine.
+     */
+    public final static int DEFAULT_EVENT_LOOPS =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Network engines that a skeleton can use to serve its clients.
+     */
+    public enum Engine {
+        /**
+         * Blocking sockets, with one thread reading calls from each client
+         * connection.
+         */
+        BLOCKING,
+        /**
+         * Non-blocking channels multiplexed over a small fixed set of event
+         * loop threads, for servers holding many mostly idle connections.
+         */
+        NIO
+    }
+
     /**
      * Creates a <code>Skeleton</code> with no initial server address. The
      * address will be determined by the system when <code>start</code> is
@@ -76,9 +130,26 @@ public class Skeleton<T> {
      */
     private Class<T> klass;
     private T server;
+    private Map<String, MethodInvoker> dispatchTable;
+    private Map<Long, MethodInvoker> hashTable;
     private InetSocketAddress address;
+    private Engine engine = Engine.BLOCKING;
     private Listener listener;
     private Thread listenningThread;
+    private volatile ServicePool servicePool;
+    private volatile AdaptiveLimiter limiter;
+    private volatile int maxServiceThreads = -1;
+    private volatile int serviceQueueCapacity = DEFAULT_SERVICE_QUEUE_CAPACITY;
+    private ThreadFactory connectionThreads;
+    private volatile boolean virtualThreads;
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile Compression compression = Compression.FAST;
+    private volatile int compressionThreshold = Compression.DEFAULT_THRESHOLD;
+    private final CompressionMetrics compressionMetrics = new CompressionMetrics();
+    private volatile BulkData.Allocator bulkAllocator;
+    private final CursorTable cursors = new CursorTable(this);
+    private final Set<Connection> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
 
     /**
      * Creates a <code>Skeleton</code> with no initial server address. The
@@ -114,6 +185,8 @@ public class Skeleton<T> {
 
         this.klass = c;
         this.server = server;
+        this.dispatchTable = buildDispatchTable(c, server, cursors);
+        this.hashTable = buildHashTable(dispatchTable);
     }
 
     /**
@@ -145,7 +218,48 @@ public class Skeleton<T> {
 
         this.klass = c;
         this.server = server;
+        this.dispatchTable = buildDispatchTable(c, server, cursors);
+        this.hashTable = buildHashTable(dispatchTable);
+        this.address = address;
+    }
+
+    /**
+     * Creates a <code>Skeleton</code> with the given initial server address
+     * and network engine.
+     * <p>
+     * <p>
+     * The <code>BLOCKING</code> engine is used by the other constructors. The
+     * <code>NIO</code> engine reads calls from all connections with a few
+     * event loop threads, and hands them to service threads for execution, so
+     * that idle connections do not occupy any thread.
+     *
+     * @param c       An object representing the class of the interface for which the
+     *                skeleton server is to handle method call requests.
+     * @param server  An object implementing said interface. Requests for method
+     *                calls are forwarded by the skeleton to this object.
+     * @param address The address at which the skeleton is to run. If
+     *                <code>null</code>, the address will be chosen by the
+     *                system when <code>start</code> is called.
+     * @param engine  The network engine serving client connections.
+     * @throws Error                If <code>c</code> does not represent a remote interface -
+     *                              an interface whose methods are all marked as throwing
+     *                              <code>RMIException</code>.
+     * @throws NullPointerException If any of <code>c</code>, <code>server</code>
+     *                              or <code>engine</code> is <code>null</code>.
+     */
+    public Skeleton(Class<T> c, T server, InetSocketAddress address, Engine engine) {
+        if (c == null || server == null || engine == null) {
+            throw new NullPointerException("All arguments except address are required");
+        }
+
+        RMIHelper.validateInterface(c);
+
+        this.klass = c;
+        this.server = server;
+        this.dispatchTable = buildDispatchTable(c, server, cursors);
+        this.hashTable = buildHashTable(dispatchTable);
         this.address = address;
+        this.engine = engine;
     }
 
     /**
@@ -233,7 +347,32 @@ public class Skeleton<T> {
             this.address = new InetSocketAddress(RMIHelper.DEFAULT_PORT);
         }
 
-        this.listener = new Listener(this.address);
+        ThreadFactory virtualThreadFactory = virtualThreads ? RMIHelper.virtualThreadFactory() : null;
+
+        if (virtualThreadFactory != null) {
+            // virtual threads are not reused, so idle ones exit right away
+            this.connectionThreads = virtualThreadFactory;
+            this.servicePool = new ServicePool(virtualThreadFactory,
+                    maxServiceThreads > 0 ? maxServiceThreads : DEFAULT_MAX_VIRTUAL_SERVICE_THREADS,
+                    serviceQueueCapacity, 0);
+        } else {
+            this.connectionThreads = Executors.defaultThreadFactory();
+            this.servicePool = new ServicePool(connectionThreads,
+                    maxServiceThreads > 0 ? maxServiceThreads : DEFAULT_MAX_SERVICE_THREADS,
+                    serviceQueueCapacity, SERVICE_THREAD_KEEP_ALIVE);
+        }
+
+        if (engine == Engine.NIO) {
+            try {
+                this.listener = new SelectorListener(this, this.address, DEFAULT_EVENT_LOOPS);
+            } catch (IOException e) {
+                servicePool.shutdown();
+                throw new RMIException("Cannot listen on " + this.address, e);
+            }
+        } else {
+            this.listener = new SocketListener(this.address);
+        }
+
         listenningThread = new Thread(this.listener);
         listenningThread.start();
     }
@@ -244,16 +383,302 @@ public class Skeleton<T> {
      * <p>
      * The listening thread terminates. Threads created to service connections
      * may continue running until their invocations of the <code>service</code>
-     * method return. The server stops at some later time; the method
-     * <code>stopped</code> is called at that point. The server may then be
-     * restarted.
+     * method return; their connections are closed afterwards. The server stops
+     * at some later time; the method <code>stopped</code> is called at that
+     * point. The server may then be restarted.
      */
     public synchronized void stop() {
         listener.stop();
         try {
-            listenningThread.join();
+            // listen_error may stop the skeleton from the listening thread
+            if (Thread.currentThread() != listenningThread) {
+                listenningThread.join();
+            }
         } catch (InterruptedException ex) {
         }
+
+        // pooled stub connections would otherwise keep this server alive
+        listener.shutdown();
+
+        // calls that are being executed still complete
+        servicePool.shutdown();
+
+        cursors.closeAll();
+    }
+
+    /**
+     * Sets the time after which client connections without calls are closed.
+     * <p>
+     * <p>
+     * The timeout applies to connections accepted after this call.
+     *
+     * @param millis Idle timeout in milliseconds, or <code>0</code> to keep
+     *               idle connections open until the client closes them.
+     * @throws IllegalArgumentException If <code>millis</code> is negative or
+     *                                  does not fit in an <code>int</code>.
+     */
+    public void setIdleTimeout(long millis) {
+        if (millis < 0 || millis > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid idle timeout: " + millis);
+        }
+
+        this.idleTimeout = millis;
+    }
+
+    /**
+     * Selects whether connections and calls are served by virtual threads.
+     * <p>
+     * <p>
+     * With virtual threads, every call is executed in a thread of its own,
+     * and so is every connection of the <code>BLOCKING</code> engine, while
+     * server objects keep their simple blocking programming model. A server
+     * method that blocks, for example waiting for another call, parks its
+     * virtual thread instead of occupying a platform thread. Virtual threads
+     * require Java 21; on older runtimes platform threads are used instead.
+     * <p>
+     * <p>
+     * The setting takes effect when the skeleton is next started.
+     *
+     * @param enabled <code>true</code> to use virtual threads.
+     */
+    public void setVirtualThreads(boolean enabled) {
+        this.virtualThreads = enabled;
+    }
+
+    /**
+     * Limits the resources used to execute calls.
+     * <p>
+     * <p>
+     * At most <code>maxThreads</code> calls are executed at the same time.
+     * Further calls wait in a queue of at most <code>queueCapacity</code>
+     * calls. When the queue is full, calls are rejected right away: the client
+     * receives an <code>RMIException</code>. By default, the limits are
+     * <code>DEFAULT_MAX_SERVICE_THREADS</code> (or
+     * <code>DEFAULT_MAX_VIRTUAL_SERVICE_THREADS</code> with virtual threads)
+     * and <code>DEFAULT_SERVICE_QUEUE_CAPACITY</code>.
+     * <p>
+     * <p>
+     * The limits take effect when the skeleton is next started.
+     *
+     * @param maxThreads    Maximum number of calls executed concurrently.
+     * @param queueCapacity Maximum number of calls waiting for a thread.
+     * @throws IllegalArgumentException If <code>maxThreads</code> is not
+     *                                  positive or <code>queueCapacity</code>
+     *                                  is negative.
+     */
+    public void setServiceLimits(int maxThreads, int queueCapacity) {
+        if (maxThreads <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid service limits");
+        }
+
+        this.maxServiceThreads = maxThreads;
+        this.serviceQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Limits the number of calls to a method executed at the same time,
+     * replacing any limit set by a <code>ConcurrencyLimit</code> annotation.
+     * <p>
+     * <p>
+     * Calls beyond the limit wait in a queue of at most
+     * <code>queueCapacity</code> calls, without taking a service thread.
+     * When the queue is full, calls are rejected right away: the client
+     * receives an <code>RMIException</code>. The limit applies to calls
+     * arriving after this call, to each overload of the method separately.
+     *
+     * @param methodName    The name of the method.
+     * @param maxCalls      Maximum number of calls executed concurrently.
+     * @param queueCapacity Maximum number of calls waiting.
+     * @throws NullPointerException     If <code>methodName</code> is
+     *                                  <code>null</code>.
+     * @throws IllegalArgumentException If the remote interface has no such
+     *                                  method, <code>maxCalls</code> is not
+     *                                  positive or <code>queueCapacity</code>
+     *                                  is negative.
+     */
+    public void setConcurrencyLimit(String methodName, int maxCalls, int queueCapacity) {
+        if (methodName == null) {
+            throw new NullPointerException("Method name is required");
+        }
+
+        if (maxCalls <= 0 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid concurrency limit");
+        }
+
+        boolean found = false;
+
+        for (MethodInvoker invoker : dispatchTable.values()) {
+            if (invoker.method.getDeclaringClass() != CursorService.class
+                    && invoker.method.getName().equals(methodName)) {
+                invoker.bulkhead = new Bulkhead(maxCalls, queueCapacity);
+                found = true;
+            }
+        }
+
+        if (!found) {
+            throw new IllegalArgumentException("Remote interface has no method " + methodName);
+        }
+    }
+
+    /**
+     * Installs a limiter adapting the number of calls in flight to their
+     * latency, or removes it.
+     * <p>
+     * <p>
+     * Calls arriving while the limiter's current limit is reached are
+     * rejected right away: the client receives an <code>RMIException</code>.
+     * The limit applies on top of the service limits and of the concurrency
+     * limits of methods, and takes effect for calls arriving after this
+     * call.
+     *
+     * @param limiter The limiter, or <code>null</code> to admit calls up to
+     *                the service limits only.
+     */
+    public void setAdaptiveLimiter(AdaptiveLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Returns the limiter installed on the skeleton, or <code>null</code>.
+     */
+    public AdaptiveLimiter getAdaptiveLimiter() {
+        return limiter;
+    }
+
+    /**
+     * Returns the bulkheads enforcing concurrency limits, with their
+     * counters, by method id such as <code>ping(int)</code>. Methods sharing
+     * the limit of their interface share a bulkhead.
+     */
+    public Map<String, Bulkhead> getConcurrencyLimits() {
+        Map<String, Bulkhead> limits = new TreeMap<String, Bulkhead>();
+
+        for (Map.Entry<String, MethodInvoker> entry : dispatchTable.entrySet()) {
+            Bulkhead bulkhead = entry.getValue().bulkhead;
+
+            if (bulkhead != null) {
+                limits.put(entry.getKey(), bulkhead);
+            }
+        }
+
+        return Collections.unmodifiableMap(limits);
+    }
+
+    /**
+     * Returns the metrics of the methods of the remote interface, by method
+     * id such as <code>ping(int)</code>. The metrics are updated as calls are
+     * executed, and may be read at any time while the skeleton runs.
+     */
+    public Map<String, MethodMetrics> getMetrics() {
+        Map<String, MethodMetrics> metrics = new TreeMap<String, MethodMetrics>();
+
+        for (Map.Entry<String, MethodInvoker> entry : dispatchTable.entrySet()) {
+            // calls fetching the elements of remote iterators are internal
+            if (entry.getValue().method.getDeclaringClass() != CursorService.class) {
+                metrics.put(entry.getKey(), entry.getValue().metrics);
+            }
+        }
+
+        return Collections.unmodifiableMap(metrics);
+    }
+
+    /**
+     * Returns the number of calls waiting for a service thread.
+     */
+    public int getQueuedCalls() {
+        ServicePool pool = servicePool;
+        return pool == null ? 0 : pool.queuedCount();
+    }
+
+    /**
+     * Returns the number of calls being executed.
+     */
+    public int getActiveCalls() {
+        ServicePool pool = servicePool;
+        return pool == null ? 0 : pool.activeCount();
+    }
+
+    /**
+     * Returns the number of calls rejected because the server was overloaded,
+     * since the skeleton was last started.
+     */
+    public long getRejectedCalls() {
+        ServicePool pool = servicePool;
+        return pool == null ? 0 : pool.rejectedCount();
+    }
+
+    /**
+     * Returns the number of calls dropped without being executed because
+     * they could no longer complete before their deadline, since the
+     * skeleton was last started.
+     */
+    public long getDroppedCalls() {
+        ServicePool pool = servicePool;
+        return pool == null ? 0 : pool.droppedCount();
+    }
+
+    /**
+     * Returns the number of client connections that are currently open.
+     */
+    public int getConnectionCount() {
+        Listener current = listener;
+        return current == null ? 0 : current.connectionCount();
+    }
+
+    /**
+     * Selects how results larger than <code>threshold</code> bytes are
+     * compressed before they are sent to stubs that accept compressed
+     * results. By default, results are compressed with
+     * <code>Compression.FAST</code> above
+     * <code>Compression.DEFAULT_THRESHOLD</code> bytes.
+     *
+     * @param compression The algorithm, or <code>Compression.NONE</code> to
+     *                    send all results uncompressed.
+     * @param threshold   The smallest payload size in bytes that is
+     *                    compressed.
+     * @throws NullPointerException     If <code>compression</code> is
+     *                                  <code>null</code>.
+     * @throws IllegalArgumentException If <code>threshold</code> is negative.
+     */
+    public void setCompression(Compression compression, int threshold) {
+        if (compression == null) {
+            throw new NullPointerException("Compression is required");
+        }
+
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid compression threshold: " + threshold);
+        }
+
+        this.compression = compression;
+        this.compressionThreshold = threshold;
+    }
+
+    /**
+     * Selects the buffers into which bulk data passed to remote methods is
+     * received, for example direct buffers taken from a pool. By default,
+     * it is received into new heap buffers.
+     *
+     * @param allocator The allocator, or <code>null</code> to receive bulk
+     *                  data into heap buffers.
+     */
+    public void setBulkAllocator(BulkData.Allocator allocator) {
+        this.bulkAllocator = allocator;
+    }
+
+    BulkData.Allocator getBulkAllocator() {
+        return bulkAllocator;
+    }
+
+    /**
+     * Returns the counters of compressed results sent and compressed calls
+     * received by the skeleton.
+     */
+    public CompressionMetrics getCompressionMetrics() {
+        return compressionMetrics;
+    }
+
+    long getIdleTimeout() {
+        return idleTimeout;
     }
 
     public InetSocketAddress getAddress() {
@@ -261,15 +686,42 @@ public class Skeleton<T> {
     }
 
 
-    private class Listener implements Runnable {
+    /**
+     * Accepts client connections and reads calls from them, on behalf of the
+     * skeleton's network engine.
+     */
+    interface Listener extends Runnable {
+        /**
+         * Stops accepting new connections.
+         */
+        void stop();
+
+        /**
+         * Stops reading calls from open connections. Each connection is
+         * closed once the results of its calls have been sent.
+         */
+        void shutdown();
+
+        int connectionCount();
+    }
+
+    /**
+     * Listener of the <code>BLOCKING</code> engine, which starts a
+     * <code>Connection</code> thread for every accepted socket.
+     */
+    private class SocketListener implements Listener {
         private InetSocketAddress listeningAddress;
         private ServerSocket listenSocket;
 
-        public Listener(InetSocketAddress addr) {
+        public SocketListener(InetSocketAddress addr) {
             this.listeningAddress = addr;
             int serverPort = this.listeningAddress.getPort();
             try {
-                listenSocket = new ServerSocket(serverPort);
+                listenSocket = new ServerSocket();
+                // allows restarting on the same port while connections of the
+                // previous run are still in TIME_WAIT
+                listenSocket.setReuseAddress(true);
+                listenSocket.bind(new InetSocketAddress(serverPort));
             } catch (IOException e) {
                 listen_error(e);
             }
@@ -278,6 +730,8 @@ public class Skeleton<T> {
         /**
          * In order to stop the listener, we need to close the socket to cause SocketException.
          * Otherwise thread interrupt will not be visible until blocking `accept` call returns.
+         * The thread calling <code>stop</code> must not be interrupted itself: its
+         * subsequent socket operations would fail.
          */
         public void stop() {
             if (this.listenSocket != null) {
@@ -287,7 +741,19 @@ public class Skeleton<T> {
                 }
             }
 
-            Thread.currentThread().interrupt();
+            if (listenningThread != null) {
+                listenningThread.interrupt();
+            }
+        }
+
+        public void shutdown() {
+            for (Connection connection : connections) {
+                connection.shutdown();
+            }
+        }
+
+        public int connectionCount() {
+            return connections.size();
         }
 
         public void run() {
@@ -297,7 +763,8 @@ public class Skeleton<T> {
                     try {
                         Socket clientSocket = listenSocket.accept();
                         Connection connection = new Connection(clientSocket);
-                        connection.start();
+                        connections.add(connection);
+                        connectionThreads.newThread(connection).start();
                     } catch (SocketException e) {
                         break;
                     }
@@ -311,88 +778,613 @@ public class Skeleton<T> {
     }
 
     /**
-     * Connection reads RMI request from a client, executes it, and sends report back
+     * Maps the identifier of every method of the remote interface, including
+     * inherited ones, to an invoker bound to the server object. The table is
+     * built once and only read afterwards, so service threads share it
+     * without locking. The methods through which stubs fetch the elements of
+     * remote iterators are added under ids that no interface method can have.
+     */
+    private static Map<String, MethodInvoker> buildDispatchTable(Class<?> c, Object server,
+                                                                 CursorTable cursors) {
+        Map<String, MethodInvoker> table = new HashMap<String, MethodInvoker>();
+
+        for (Method m : c.getMethods()) {
+            table.put(RMIHelper.methodId(m), new MethodInvoker(m, server));
+        }
+
+        applyConcurrencyLimits(table.values());
+
+        for (Method m : CursorService.class.getMethods()) {
+            table.put(CursorService.METHOD_PREFIX + RMIHelper.methodId(m), new MethodInvoker(m, cursors));
+        }
+
+        return Collections.unmodifiableMap(table);
+    }
+
+    /**
+     * Gives bulkheads to the methods marked with a
+     * <code>ConcurrencyLimit</code>, and to those declared in an interface
+     * marked with one, which then share a bulkhead.
+     *
+     * @throws Error If a limit is not valid.
+     */
+    private static void applyConcurrencyLimits(Collection<MethodInvoker> invokers) {
+        Map<Class<?>, Bulkhead> shared = new HashMap<Class<?>, Bulkhead>();
+
+        for (MethodInvoker invoker : invokers) {
+            Method m = invoker.method;
+            ConcurrencyLimit limit = m.getAnnotation(ConcurrencyLimit.class);
+
+            if (limit != null) {
+                invoker.bulkhead = bulkhead(limit, m.getName());
+                continue;
+            }
+
+            Class<?> declaringClass = m.getDeclaringClass();
+            limit = declaringClass.getAnnotation(ConcurrencyLimit.class);
+
+            if (limit != null) {
+                Bulkhead bulkhead = shared.get(declaringClass);
+
+                if (bulkhead == null) {
+                    bulkhead = bulkhead(limit, declaringClass.getName());
+                    shared.put(declaringClass, bulkhead);
+                }
+
+                invoker.bulkhead = bulkhead;
+            }
+        }
+    }
+
+    private static Bulkhead bulkhead(ConcurrencyLimit limit, String name) {
+        if (limit.value() <= 0 || limit.queue() < 0) {
+            throw new Error("Invalid concurrency limit on " + name);
+        }
+
+        return new Bulkhead(limit.value(), limit.queue());
+    }
+
+    /**
+     * Maps the numeric ids used by the binary protocol to the same invokers.
+     *
+     * @throws Error If two methods of the remote interface have the same
+     *               numeric id, which makes the interface unusable remotely.
+     */
+    private static Map<Long, MethodInvoker> buildHashTable(Map<String, MethodInvoker> table) {
+        Map<Long, MethodInvoker> hashes = new HashMap<Long, MethodInvoker>();
+
+        for (Map.Entry<String, MethodInvoker> entry : table.entrySet()) {
+            MethodInvoker previous = hashes.put(RMIHelper.methodHash(entry.getKey()), entry.getValue());
+
+            if (previous != null) {
+                throw new Error("Methods " + entry.getKey() + " and "
+                        + RMIHelper.methodId(previous.method) + " have the same numeric id");
+            }
+        }
+
+        return Collections.unmodifiableMap(hashes);
+    }
+
+    /**
+     * Finds the method requested by a call.
+     *
+     * @return The invoker of the method, or <code>null</code> if the remote
+     * interface has no matching method.
+     */
+    private MethodInvoker resolve(RMICallInfo info) {
+        if (info.methodId != null) {
+            return dispatchTable.get(info.methodId);
+        } else if (info.binary) {
+            return hashTable.get(info.methodHash);
+        } else {
+            return resolveByArguments(info);
+        }
+    }
+
+    /**
+     * Invokes the method requested by a call on the server object.
+     *
+     * @return The result of the call, or <code>null</code> if the remote
+     * interface has no matching method.
+     */
+    private RMIResult dispatch(RMICallInfo info, MethodInvoker invoker) {
+        if (invoker == null) {
+            return null;
+        }
+
+        RMIResult result = new RMIResult();
+
+        try {
+            result.value = invoker.invoke(info.args);
+        } catch (Exception e) {
+            result.exception = e;
+        }
+
+        // the elements are fetched by the stub in chunks
+        if (result.value instanceof RemoteIterator) {
+            result.value = cursors.open((RemoteIterator<?>) result.value);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the methods of the remote interface by numeric id.
+     */
+    Map<Long, MethodInvoker> methodsByHash() {
+        return hashTable;
+    }
+
+    /**
+     * Answers the hello call of a stub with the highest binary protocol
+     * version supported by both sides.
+     */
+    private RMIResult hello(RMICallInfo info) {
+        RMIResult result = new RMIResult();
+        int offered = 0;
+
+        if (info.args != null && info.args.length > 0 && info.args[0] instanceof Integer) {
+            offered = (Integer) info.args[0];
+        }
+
+        // versions are not compatible with each other
+        result.value = offered >= BinaryCodec.VERSION ? BinaryCodec.VERSION : 0;
+        return result;
+    }
+
+    /**
+     * Finds a method by name and argument types, for calls that do not carry
+     * a method id.
+     */
+    private MethodInvoker resolveByArguments(RMICallInfo info) {
+        for (MethodInvoker invoker : dispatchTable.values()) {
+            Method m = invoker.method;
+
+            if (m.getDeclaringClass() == CursorService.class) {
+                continue;
+            }
+
+            String mname = m.getName();
+            // check if the method name matches the current method name
+            if (!mname.equals(info.methodName)) {
+                continue;
+            }
+
+            // Check if the number of parameters match
+            Class[] pClass = m.getParameterTypes();
+
+            if (info.args != null && pClass.length != info.args.length) {
+                continue;
+            }
+
+            boolean paramsMatch = true;
+            for (int i = 0; i < pClass.length; i++) {
+                Class klass = pClass[i];
+                if (!RMIHelper.isCompatible(klass, info.args[i])) {
+                    paramsMatch = false;
+                    break;
+                }
+            }
+
+            if (!paramsMatch) continue;
+
+            return invoker;
+        }
+
+        return null;
+    }
+
+    /**
+     * Serializes the result of a call into a frame. A result that cannot be
+     * serialized is replaced by an <code>RMIException</code>, so that the
+     * client does not wait for it forever. Large results of binary calls are
+     * compressed.
+     */
+    Frames.Buffer encode(RMIResult result) throws IOException {
+        try {
+            Frames.Buffer frame = Frames.encode(result, result.binary);
+
+            if (result.binary) {
+                frame = Frames.compress(frame, compression, compressionThreshold, compressionMetrics);
+            }
+
+            if (result.metrics != null) {
+                result.metrics.sent(Frames.size(frame.size() - Frames.HEADER_LENGTH, frame.attachments));
+            }
+
+            return frame;
+        } catch (NotSerializableException e) {
+            RMIException error = new RMIException("Cannot serialize result of remote call", e);
+            service_error(error);
+
+            RMIResult replacement = new RMIResult();
+            replacement.requestId = result.requestId;
+            replacement.exception = error;
+            return Frames.encode(replacement, result.binary);
+        }
+    }
+
+    /**
+     * Hands a call read from a connection to a service thread. If all service
+     * threads are busy and the queue is full, the call is rejected with an
+     * <code>RMIException</code> sent back to the client.
+     *
+     * @throws RejectedExecutionException If the skeleton is being stopped.
+     */
+    void execute(ServiceConnection connection, RMICallInfo info) {
+        // answered by the reading thread, so that an overloaded skeleton
+        // cannot shed it and leave the connection on serialization for good
+        if (Frames.HELLO_METHOD_ID.equals(info.methodId)) {
+            RMIResult result = hello(info);
+            result.requestId = info.requestId;
+            result.binary = info.binary;
+
+            try {
+                connection.respond(result);
+            } finally {
+                connection.release();
+            }
+
+            return;
+        }
+
+        info.arrived = System.nanoTime();
+
+        if (info.timeout > 0) {
+            info.deadline = info.arrived + TimeUnit.MILLISECONDS.toNanos(info.timeout);
+        }
+
+        Call call = new Call(connection, info);
+        AdaptiveLimiter limiter = this.limiter;
+
+        if (limiter != null) {
+            if (!limiter.acquire()) {
+                reject(connection, info, "Call rejected: concurrency limit reached");
+                return;
+            }
+
+            call.limiter = limiter;
+        }
+
+        if (call.bulkhead != null) {
+            Bulkhead.Admission admission = call.bulkhead.admit(call);
+
+            if (admission == Bulkhead.Admission.QUEUED) {
+                return;
+            }
+
+            if (admission == Bulkhead.Admission.REJECTED) {
+                if (call.limiter != null) {
+                    call.limiter.release();
+                }
+
+                reject(connection, info, "Call rejected: too many concurrent calls to "
+                        + call.invoker.method.getName());
+                return;
+            }
+        }
+
+        start(call);
+    }
+
+    /**
+     * Hands an admitted call to the service pool.
+     *
+     * @throws RejectedExecutionException If the skeleton is being stopped.
+     */
+    private void start(Call call) {
+        boolean accepted;
+
+        try {
+            accepted = servicePool.offer(call);
+        } catch (RejectedExecutionException e) {
+            if (call.limiter != null) {
+                call.limiter.release();
+            }
+
+            call.finish();
+            throw e;
+        }
+
+        // overloaded: fail fast instead of queueing without bound
+        if (!accepted) {
+            if (call.limiter != null) {
+                call.limiter.dropped();
+            }
+
+            call.finish();
+            reject(call.connection, call.info, "Call rejected: server is overloaded");
+        }
+    }
+
+    /**
+     * Answers a call that will not be executed with an
+     * <code>RMIException</code>.
      */
-    private class Connection extends Thread {
-        ObjectInputStream input;
-        ObjectOutputStream output;
+    private void reject(ServiceConnection connection, RMICallInfo info, String message) {
+        RMIResult result = new RMIResult();
+        result.requestId = info.requestId;
+        result.binary = info.binary;
+        result.exception = new RMIException(message);
+
+        try {
+            connection.respond(result);
+        } finally {
+            connection.release();
+        }
+    }
+
+    /**
+     * Connection reads RMI requests from a client and hands them to service
+     * threads, which execute them and send reports back.
+     * <p>
+     * <p>
+     * Stubs keep their connections open between calls and send calls from
+     * many threads over the same connection, so a connection serves calls
+     * until the client closes it or the skeleton is stopped. Each result
+     * carries the request id of its call, so results may be sent in any order.
+     */
+    private class Connection implements Runnable, ServiceConnection {
+        DataInputStream input;
+        OutputStream output;
         Socket clientSocket;
 
+        /**
+         * The reading thread holds one reference to the connection, and each
+         * call being executed holds another. The connection is closed when
+         * the last reference is released.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
         public Connection(Socket socket) {
+            clientSocket = socket;
+        }
+
+        public void run() {
+            try {
+                if (!open()) {
+                    return;
+                }
+
+                while (serve()) {
+                }
+            } finally {
+                release();
+            }
+        }
+
+        /**
+         * Prepares the streams of the connection.
+         *
+         * @return <code>false</code> if the connection is already unusable.
+         */
+        private boolean open() {
             try {
-                clientSocket = socket;
-                output = new ObjectOutputStream(clientSocket.getOutputStream());
-                input = new ObjectInputStream(clientSocket.getInputStream());
+                clientSocket.setTcpNoDelay(true);
+                clientSocket.setSoTimeout((int) idleTimeout);
+                output = clientSocket.getOutputStream();
+                input = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+                return true;
             } catch (IOException e) {
-                // this happens when client socket didn't send anything (occurrs in tests).
-                // looks like this should be ignored.
+                return false;
             }
         }
 
-        public void run() {
-            if (this.input == null) {
-                return;
+        /**
+         * Stops accepting further calls on this connection. Calls that are
+         * being executed still send their results before the connection closes.
+         */
+        void shutdown() {
+            try {
+                clientSocket.shutdownInput();
+            } catch (IOException e) {
             }
+        }
 
-            // This is the part we parse the arguments and make method call
+        /**
+         * Reads a single call and hands it to a service thread.
+         *
+         * @return <code>true</code> if the connection can serve more calls.
+         */
+        private boolean serve() {
             try {
-                RMICallInfo info = (RMICallInfo) input.readObject();
+                int length;
+
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    // client closed the connection between calls, or connected
+                    // without sending anything (occurs in tests)
+                    return false;
+                } catch (SocketTimeoutException e) {
+                    // client kept the connection idle for too long, unless it
+                    // is still waiting for results
+                    return references.get() > 1;
+                }
+
+                RMICallInfo info = (RMICallInfo) Frames.readPayload(input, length, hashTable,
+                        compressionMetrics, bulkAllocator);
 
                 if (info == null) {
-                    return;
+                    return false;
                 }
 
-                boolean methodExists = false;
+                info.size = Frames.size(length, Frames.attachments(info));
+                references.incrementAndGet();
 
-                Method[] allMethods = klass.getDeclaredMethods();
-                for (Method m : allMethods) {
-                    String mname = m.getName();
-                    // check if the method name matches the current method name
-                    if (!mname.equals(info.methodName)) {
-                        continue;
-                    }
+                try {
+                    execute(this, info);
+                } catch (RejectedExecutionException e) {
+                    // the skeleton is being stopped
+                    release();
+                    return false;
+                }
 
-                    // Check if the number of parameters match
-                    Class[] pClass = m.getParameterTypes();
+                return true;
+            } catch (SocketException ex) {
+                // connection was reset by the client or closed by stop()
+                return false;
+            } catch (Exception ex) {
+                service_error(new RMIException(ex));
+                return false;
+            }
+        }
 
-                    if (info.args != null && pClass.length != info.args.length) {
-                        continue;
-                    }
+        /**
+         * Sends the result of a call. Results of calls executed by different
+         * service threads are written one at a time.
+         */
+        public void respond(RMIResult result) {
+            try {
+                Frames.Buffer frame = encode(result);
 
-                    boolean paramsMatch = true;
-                    for (int i = 0; i < pClass.length; i++) {
-                        Class klass = pClass[i];
-                        if (!RMIHelper.isCompatible(klass, info.args[i])) {
-                            paramsMatch = false;
-                            break;
-                        }
-                    }
+                synchronized (output) {
+                    Frames.write(output, clientSocket.getChannel(), frame);
+                }
+            } catch (IOException e) {
+                // client went away before the result was ready
+            }
+        }
+
+        /**
+         * Releases a reference to the connection, closing it if this was the
+         * last one.
+         */
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                connections.remove(this);
+                close();
+            }
+        }
 
-                    if (!paramsMatch) continue;
+        /**
+         * Releases the streams and the socket of the connection.
+         */
+        private void close() {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
 
-                    methodExists = true;
-                    RMIResult result = new RMIResult();
+    /**
+     * A single call read from a connection, executed by a service thread.
+     */
+    private class Call implements ServicePool.Sheddable {
+        private final ServiceConnection connection;
+        private final RMICallInfo info;
+        private final MethodInvoker invoker;
+        private final Bulkhead bulkhead;
 
-                    try {
-                        result.value = m.invoke(server, info.args);
-                    } catch (Exception e) {
-                        result.exception = e;
+        /**
+         * Limiter that admitted the call, if any.
+         */
+        AdaptiveLimiter limiter;
+
+        Call(ServiceConnection connection, RMICallInfo info) {
+            this.connection = connection;
+            this.info = info;
+            this.invoker = resolve(info);
+            this.bulkhead = invoker == null ? null : invoker.bulkhead;
+        }
+
+        /**
+         * Gives up the call's place in its bulkhead, starting the next call
+         * waiting there.
+         */
+        void finish() {
+            if (bulkhead == null) {
+                return;
+            }
+
+            // bulkheads only ever hold calls of the skeleton that made them
+            @SuppressWarnings("unchecked")
+            Call next = (Call) bulkhead.release();
+
+            if (next != null) {
+                try {
+                    start(next);
+                } catch (RejectedExecutionException e) {
+                    reject(next.connection, next.info, "Call rejected: server is stopping");
+                }
+            }
+        }
+
+        /**
+         * Checks whether the call would end after its deadline, judging by
+         * the time its method has recently taken.
+         */
+        public boolean isLate(long now) {
+            if (info.deadline == 0) {
+                return false;
+            }
+
+            long expected = invoker == null ? 0 : invoker.averageTime();
+            return now + expected - info.deadline >= 0;
+        }
+
+        public void drop() {
+            RMIResult result = new RMIResult();
+            result.requestId = info.requestId;
+            result.binary = info.binary;
+            result.exception = new DeadlineExceededException(
+                    "Call dropped: it could not complete before its deadline");
+
+            if (limiter != null) {
+                limiter.dropped();
+            }
+
+            try {
+                finish();
+                connection.respond(result);
+            } finally {
+                connection.release();
+            }
+        }
+
+        public void run() {
+            try {
+                if (invoker != null) {
+                    invoker.metrics.started(info.size, System.nanoTime() - info.arrived);
+                }
+
+                Deadline deadline = info.deadline == 0 ? null : Deadline.enter(info.deadline);
+                RMIResult result;
+
+                try {
+                    result = dispatch(info, invoker);
+                } finally {
+                    if (deadline != null) {
+                        deadline.close();
                     }
 
-                    output.writeObject(result);
-                    output.flush();
+                    // the next call may start while this result is sent
+                    if (limiter != null) {
+                        limiter.release(System.nanoTime() - info.arrived);
+                    }
 
-                    break;
+                    finish();
                 }
 
                 // this edge case may happen if server and client have different versions
                 // of the same interface and some methods don't match.
-                if (!methodExists) {
-                    throw new RuntimeException("Method requested by remote client does not exist");
+                if (result == null) {
+                    RMIException error = new RMIException("Method requested by remote client does not exist");
+                    service_error(error);
+
+                    result = new RMIResult();
+                    result.exception = error;
                 }
-            } catch (Exception ex) {
-                service_error(new RMIException(ex));
+
+                result.requestId = info.requestId;
+                result.binary = info.binary;
+                result.metrics = invoker == null ? null : invoker.metrics;
+                connection.respond(result);
+            } finally {
+                connection.release();
             }
         }
     }
+
 }
@@ -2,10 +2,18 @@ package rmi;
 
 import java.io.*;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
 import java.lang.reflect.Proxy;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RMI stub factory.
@@ -20,6 +28,11 @@ import java.util.Objects;
  * may not be modified afterwards. Two stubs are equal if they implement the
  * same interface and carry the same remote server address - and would
  * therefore connect to the same skeleton. Stubs are serializable.
+ * <p>
+ * <p>
+ * A stub may also be created for several replicas of the same remote object,
+ * in which case it spreads its calls over them following a
+ * <code>LoadBalancing</code> policy.
  */
 public abstract class Stub {
     /**
@@ -134,13 +147,410 @@ public abstract class Stub {
         return createObject(c, address);
     }
 
+    /**
+     * Creates a stub spreading its calls over several replicas of a remote
+     * object.
+     * <p>
+     * <p>
+     * Each call goes to the replica chosen by <code>policy</code>. Replicas
+     * whose <code>CircuitBreaker</code> is open receive no calls, until its
+     * cool-down has passed and a probe call may be sent to them. Calls that
+     * fail are repeated on another replica only as allowed by
+     * <code>Retry</code>.
+     * <p>
+     * <p>
+     * Results of <code>Cacheable</code> methods are cached under the first
+     * address, which also identifies the stub: two such stubs are equal if
+     * they implement the same interface and carry the same addresses and
+     * policy.
+     *
+     * @param c         A <code>Class</code> object representing the interface
+     *                  implemented by the remote objects.
+     * @param addresses The network addresses of the replicas' skeletons.
+     * @param policy    The policy choosing a replica for each call.
+     * @return The stub created.
+     * @throws NullPointerException     If any argument or address is
+     *                                  <code>null</code>.
+     * @throws IllegalArgumentException If <code>addresses</code> is empty.
+     * @throws Error                    If <code>c</code> does not represent a remote interface
+     *                                  - an interface in which each method is marked as throwing
+     *                                  <code>RMIException</code>, or if an object implementing
+     *                                  this interface cannot be dynamically created.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T create(Class<T> c, List<InetSocketAddress> addresses,
+                               LoadBalancing policy) {
+        if (c == null || addresses == null || policy == null) {
+            throw new NullPointerException("All arguments are required");
+        }
+
+        if (addresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one address is required");
+        }
+
+        for (InetSocketAddress address : addresses) {
+            if (address == null) {
+                throw new NullPointerException("Addresses must not be null");
+            }
+        }
+
+        RMIHelper.validateInterface(c);
+        StubInvocationHandler handler = new StubInvocationHandler(addresses.get(0), c);
+        handler.replicas = new ReplicaSet(addresses, policy);
+
+        return (T) Proxy.newProxyInstance(
+                c.getClassLoader(),
+                new Class[]{c},
+                handler);
+    }
+
+    /**
+     * Creates an asynchronous stub, given the address of a remote server.
+     * <p>
+     * <p>
+     * The stub implements an <em>asynchronous companion</em> of a remote
+     * interface: an interface declaring the same methods, with the same names
+     * and parameter types, but returning <code>CompletableFuture</code>
+     * objects instead of values. For example, the companion of
+     * <pre>
+     * public String ping(int idNumber) throws RMIException;
+     * </pre>
+     * is
+     * <pre>
+     * public CompletableFuture&lt;String&gt; ping(int idNumber);
+     * </pre>
+     * <p>
+     * <p>
+     * Calls return as soon as the request has been sent. The future is
+     * completed with the value returned by the remote method, or
+     * exceptionally with the exception thrown by the remote method or with an
+     * <code>RMIException</code> if the call could not be performed. Futures are
+     * completed by the thread reading results from the connection, so
+     * callbacks attached to them should not block.
+     *
+     * @param c       A <code>Class</code> object representing the asynchronous
+     *                companion interface.
+     * @param address The network address of the remote skeleton.
+     * @return The stub created.
+     * @throws NullPointerException If any argument is <code>null</code>.
+     * @throws Error                If <code>c</code> is not an interface in which
+     *                              every method returns <code>CompletableFuture</code>,
+     *                              or if an object implementing this interface cannot
+     *                              be dynamically created.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T createAsync(Class<T> c, InetSocketAddress address) {
+        if (c == null || address == null) {
+            throw new NullPointerException("All arguments are required");
+        }
+
+        RMIHelper.validateAsyncInterface(c);
+        return (T) Proxy.newProxyInstance(
+                c.getClassLoader(),
+                new Class[]{c},
+                new StubInvocationHandler(address, c, true));
+    }
+
+    /**
+     * Selects how calls to a remote address are compressed.
+     * <p>
+     * <p>
+     * The setting applies to all stubs connecting to the address. Calls
+     * whose payload is larger than <code>threshold</code> bytes are
+     * compressed when the skeleton accepts compressed calls. By default,
+     * calls are compressed with <code>Compression.FAST</code> above
+     * <code>Compression.DEFAULT_THRESHOLD</code> bytes.
+     *
+     * @param address     The network address of the remote skeleton.
+     * @param compression The algorithm, or <code>Compression.NONE</code> to
+     *                    send all calls uncompressed.
+     * @param threshold   The smallest payload size in bytes that is
+     *                    compressed.
+     * @throws NullPointerException     If <code>address</code> or
+     *                                  <code>compression</code> is
+     *                                  <code>null</code>.
+     * @throws IllegalArgumentException If <code>threshold</code> is negative.
+     */
+    public static void setCompression(InetSocketAddress address, Compression compression,
+                                      int threshold) {
+        if (address == null || compression == null) {
+            throw new NullPointerException("All arguments are required");
+        }
+
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid compression threshold: " + threshold);
+        }
+
+        ConnectionPool.forAddress(address).setCompression(compression, threshold);
+    }
+
+    /**
+     * Selects the buffers into which bulk data returned by calls to a remote
+     * address is received, for example direct buffers taken from a pool.
+     * <p>
+     * <p>
+     * The setting applies to all stubs connecting to the address. By
+     * default, bulk data is received into new heap buffers.
+     *
+     * @param address   The network address of the remote skeleton.
+     * @param allocator The allocator, or <code>null</code> to receive bulk
+     *                  data into heap buffers.
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static void setBulkAllocator(InetSocketAddress address, BulkData.Allocator allocator) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        ConnectionPool.forAddress(address).setBulkAllocator(allocator);
+    }
+
+    /**
+     * Returns the counters of compressed calls sent to, and compressed
+     * results received from, a remote address.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static CompressionMetrics getCompressionMetrics(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        return ConnectionPool.forAddress(address).getCompressionMetrics();
+    }
+
+    /**
+     * Configures the circuit breaker shared by all stubs connecting to a
+     * remote address.
+     *
+     * @param address          The network address of the remote skeleton.
+     * @param failureThreshold The number of calls in a row that must fail to
+     *                         reach the skeleton for the breaker to open.
+     * @param coolDown         The time in milliseconds during which an open
+     *                         breaker fails calls before letting a probe
+     *                         through.
+     * @throws NullPointerException     If <code>address</code> is
+     *                                  <code>null</code>.
+     * @throws IllegalArgumentException If <code>failureThreshold</code> is not
+     *                                  positive or <code>coolDown</code> is
+     *                                  negative.
+     */
+    public static void setCircuitBreaker(InetSocketAddress address, int failureThreshold,
+                                         long coolDown) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid failure threshold: " + failureThreshold);
+        }
+
+        if (coolDown < 0) {
+            throw new IllegalArgumentException("Invalid cool-down: " + coolDown);
+        }
+
+        ConnectionPool.forAddress(address).getCircuitBreaker().configure(failureThreshold, coolDown);
+    }
+
+    /**
+     * Returns the circuit breaker shared by all stubs connecting to a remote
+     * address, to observe its state.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static CircuitBreaker getCircuitBreaker(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        return ConnectionPool.forAddress(address).getCircuitBreaker();
+    }
+
+    /**
+     * Returns a stub like the given one, whose calls must complete within a
+     * timeout.
+     * <p>
+     * <p>
+     * The timeout bounds the time to connect to the skeleton and to wait for
+     * each result, and is sent with the call so that the skeleton does not
+     * start calls whose caller has already given up. Calls that miss it throw
+     * a <code>DeadlineExceededException</code>. A <code>Deadline</code> set by
+     * the calling thread applies as well, if it is earlier.
+     *
+     * @param stub    A stub created by this class.
+     * @param timeout The timeout in milliseconds, or 0 for none.
+     * @return The new stub, connecting to the same address.
+     * @throws NullPointerException     If <code>stub</code> is <code>null</code>.
+     * @throws IllegalArgumentException If <code>stub</code> is not a stub, or
+     *                                  <code>timeout</code> is negative.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T withTimeout(T stub, long timeout) {
+        if (stub == null) {
+            throw new NullPointerException("Stub is required");
+        }
+
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Invalid timeout: " + timeout);
+        }
+
+        StubInvocationHandler copy = handler(stub).copy();
+        copy.timeout = timeout;
+
+        return (T) copy.proxy();
+    }
+
+    /**
+     * Returns a stub like the given one, which hedges calls to
+     * <code>Idempotent</code> methods.
+     * <p>
+     * <p>
+     * When a hedged call has not returned after the given percentile of the
+     * latencies recorded for its method, a backup copy is sent to another
+     * replica. The first result to arrive is returned and the other call is
+     * cancelled; the call fails only if both copies fail. Latencies are
+     * recorded by hedging stubs, so calls are hedged only once
+     * <code>ConnectionPool.HEDGE_MIN_SAMPLES</code> of them have returned.
+     * <p>
+     * <p>
+     * Every hedged call adds <code>budget</code> to the backup calls that
+     * may be sent, so that hedging never adds more than this fraction to the
+     * calls sent to the replicas. The budget is shared by stubs with the same
+     * first address, and can save up to
+     * <code>ConnectionPool.HEDGE_MAX_BURST</code> backup calls.
+     *
+     * @param stub       A stub created for several replicas.
+     * @param percentile The percentile of the latency after which a backup is
+     *                   sent, greater than 0 and less than 100.
+     * @param budget     The largest number of backup calls per call, greater
+     *                   than 0 and at most 1.
+     * @return The new stub, connecting to the same replicas.
+     * @throws NullPointerException     If <code>stub</code> is <code>null</code>.
+     * @throws IllegalArgumentException If <code>stub</code> is not a stub
+     *                                  created for several replicas, or
+     *                                  <code>percentile</code> or
+     *                                  <code>budget</code> is out of range.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T withHedging(T stub, double percentile, double budget) {
+        if (stub == null) {
+            throw new NullPointerException("Stub is required");
+        }
+
+        if (!(percentile > 0 && percentile < 100)) {
+            throw new IllegalArgumentException("Invalid percentile: " + percentile);
+        }
+
+        if (!(budget > 0 && budget <= 1)) {
+            throw new IllegalArgumentException("Invalid hedging budget: " + budget);
+        }
+
+        StubInvocationHandler copy = handler(stub).copy();
+
+        if (copy.replicas == null || copy.replicas.size() < 2) {
+            throw new IllegalArgumentException("Hedging requires a stub for several replicas");
+        }
+
+        copy.hedgePercentile = percentile;
+        copy.hedgeBudget = budget;
+
+        return (T) copy.proxy();
+    }
+
+    /**
+     * Returns the number of backup calls sent by hedging stubs whose first
+     * address is the given one.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static long getHedgedCalls(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        return ConnectionPool.forAddress(address).getHedgedCalls();
+    }
+
+    /**
+     * Returns the number of retries of calls to methods marked
+     * <code>Retry</code>, made by all stubs.
+     */
+    public static long getRetriedCalls() {
+        return ConnectionPool.getRetriedCalls();
+    }
+
+    private static StubInvocationHandler handler(Object stub) {
+        if (!Proxy.isProxyClass(stub.getClass())
+                || !(Proxy.getInvocationHandler(stub) instanceof StubInvocationHandler)) {
+            throw new IllegalArgumentException("Argument is not a stub");
+        }
+
+        return (StubInvocationHandler) Proxy.getInvocationHandler(stub);
+    }
+
+    /**
+     * Returns the counters of results of <code>Cacheable</code> methods served
+     * by stubs connecting to a remote address.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static CacheStatistics getCacheStatistics(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        return ConnectionPool.forAddress(address).getCacheStatistics();
+    }
+
+    /**
+     * Returns the number of calls to a remote address that shared the result
+     * of an identical call in flight instead of being sent, as allowed by
+     * <code>Idempotent.coalesce</code>.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static long getCoalescedCalls(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        return ConnectionPool.forAddress(address).getCoalescedCalls();
+    }
+
+    /**
+     * Removes all cached results of calls to a remote address, for example
+     * after the data they were computed from has changed.
+     *
+     * @throws NullPointerException If <code>address</code> is <code>null</code>.
+     */
+    public static void clearCache(InetSocketAddress address) {
+        if (address == null) {
+            throw new NullPointerException("Address is required");
+        }
+
+        ConnectionPool.forAddress(address).clearCaches();
+    }
+
     /**
      * Stub object proxy
      */
     private static class StubInvocationHandler
             implements InvocationHandler, Serializable {
+        /**
+         * Version of the serialized form, pinned to the one of the last
+         * release without the binary protocol, so that stubs can still be
+         * passed between it and this one. Fields added since are ignored by
+         * the earlier version, and take their defaults when they are missing.
+         */
+        private static final long serialVersionUID = 8261813391488290264L;
+
         protected InetSocketAddress remoteAddress;
         protected Class originalClass;
+        protected boolean async;
+        protected long timeout;
+        protected ReplicaSet replicas;
+        protected double hedgePercentile;
+        protected double hedgeBudget;
 
         /**
          * Implementation of "equals" and "hashcode"
@@ -157,13 +567,40 @@ public abstract class Stub {
                 getObjectMethod("toString");
 
         public <T> StubInvocationHandler(InetSocketAddress addr, Class<T> c) {
+            this(addr, c, false);
+        }
+
+        public <T> StubInvocationHandler(InetSocketAddress addr, Class<T> c, boolean async) {
             this.remoteAddress = addr;
             this.originalClass = c;
+            this.async = async;
+        }
+
+        /**
+         * Returns a handler with the same settings, to be changed for a new
+         * stub.
+         */
+        StubInvocationHandler copy() {
+            Class<?> c = this.originalClass;
+            StubInvocationHandler copy = new StubInvocationHandler(this.remoteAddress, c, this.async);
+            copy.timeout = this.timeout;
+            copy.replicas = this.replicas;
+            copy.hedgePercentile = this.hedgePercentile;
+            copy.hedgeBudget = this.hedgeBudget;
+            return copy;
+        }
+
+        Object proxy() {
+            return Proxy.newProxyInstance(
+                    this.originalClass.getClassLoader(),
+                    new Class[]{this.originalClass},
+                    this);
         }
 
         /**
          * Performs a method - either a local one (equals, hashcode, or toString),
-         * or remote one, by sending method and arguments over the socket.
+         * or remote one, by sending method and arguments over a pooled
+         * connection to the skeleton.
          */
         public Object invoke(Object proxy, Method method, Object[] args)
         throws Throwable {
@@ -175,38 +612,345 @@ public abstract class Stub {
                 return toString();
             }
 
-            RMIResult result = null;
+            RMICallInfo data = new RMICallInfo(proxy.getClass().getCanonicalName(), method, args);
+            data.deadline = Deadline.expires(this.timeout);
+            Cacheable cacheable = method.getAnnotation(Cacheable.class);
+            ResultCache cache = null;
+
+            if (cacheable != null) {
+                cache = ConnectionPool.forAddress(this.remoteAddress).cache(data.methodId, cacheable);
+                Object cached = cache.get(args);
+
+                if (cached != ResultCache.MISS) {
+                    return this.async ? CompletableFuture.completedFuture(cached) : cached;
+                }
+            }
+
+            InetSocketAddress address = this.replicas == null ? this.remoteAddress : this.replicas.select();
+
+            if (this.async) {
+                return invokeAsync(method, address, data, cache);
+            }
+
+            Object value = attach(await(call(method, address, data), data.deadline));
+
+            if (cache != null) {
+                cache.put(args, value);
+            }
+
+            return value;
+        }
+
+        /**
+         * Sends a call, repeating it as allowed by the <code>Retry</code>
+         * annotation of the method, if it has one.
+         */
+        private CompletableFuture<RMIResult> call(Method method, InetSocketAddress address, RMICallInfo data) {
+            Retry retry = method.getAnnotation(Retry.class);
+
+            if (retry == null) {
+                return attempt(method, address, data);
+            }
+
+            CompletableFuture<RMIResult> result = new CompletableFuture<RMIResult>();
+
+            ConnectionPool.earnRetry();
+            retry(method, retry, address, data, 1, result);
+            return result;
+        }
+
+        /**
+         * Makes an attempt at a call marked <code>Retry</code>, which
+         * completes <code>result</code> unless it fails in a way that allows
+         * another attempt. The next attempt is then scheduled after a random
+         * backoff, to another replica if there is one.
+         */
+        private void retry(final Method method, final Retry retry, final InetSocketAddress address,
+                           final RMICallInfo data, final int attempt,
+                           final CompletableFuture<RMIResult> result) {
+            final CompletableFuture<RMIResult> call = attempt(method, address, data);
+
+            call.whenComplete((value, failure) -> {
+                if (failure == null) {
+                    result.complete(value);
+                    return;
+                }
+
+                long delay = backoff(retry, attempt);
+
+                if (result.isDone() || attempt >= retry.attempts()
+                        || !isRetryable(method, data, failure, delay) || !ConnectionPool.spendRetry()) {
+                    result.completeExceptionally(failure);
+                    return;
+                }
+
+                final InetSocketAddress next = this.replicas == null ? null : this.replicas.alternative(address);
+
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+                    if (!result.isDone()) {
+                        retry(method, retry, next == null ? address : next, data.copy(), attempt + 1, result);
+                    }
+                });
+            });
+
+            // a caller giving up stops the attempt in flight
+            result.whenComplete((value, failure) -> call.cancel(false));
+        }
+
+        /**
+         * Returns a random wait before the retry following the given attempt,
+         * bounded by a backoff doubling with every attempt.
+         */
+        private static long backoff(Retry retry, int attempt) {
+            long bound = retry.backoff();
+
+            for (int i = 1; i < attempt && bound < retry.maxBackoff(); i++) {
+                bound *= 2;
+            }
+
+            bound = Math.min(bound, retry.maxBackoff());
+            return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+        }
+
+        /**
+         * Checks whether a failed call may be repeated after the given delay:
+         * it must have failed to reach the skeleton, not have been executed
+         * by it unless the method is idempotent, and still have time left
+         * before its deadline.
+         */
+        private static boolean isRetryable(Method method, RMICallInfo data, Throwable failure, long delay) {
+            if (failure instanceof CompletionException && failure.getCause() != null) {
+                failure = failure.getCause();
+            }
+
+            if (!(failure instanceof IOException) && !(failure instanceof CircuitOpenException)) {
+                return false;
+            }
 
+            if (data.deadline != 0
+                    && data.deadline - System.nanoTime() <= TimeUnit.MILLISECONDS.toNanos(delay)) {
+                return false;
+            }
+
+            return !data.sent || method.getAnnotation(Idempotent.class) != null;
+        }
+
+        /**
+         * Sends a call once, hedging it if the method is
+         * <code>Idempotent</code> and the stub hedges calls.
+         */
+        private CompletableFuture<RMIResult> attempt(Method method, InetSocketAddress address,
+                                                     RMICallInfo data) {
+            Idempotent idempotent = method.getAnnotation(Idempotent.class);
+            boolean coalesce = idempotent != null && idempotent.coalesce();
+
+            if (idempotent == null || this.hedgePercentile == 0) {
+                return send(address, data, coalesce);
+            }
+
+            return hedge(address, data, coalesce);
+        }
+
+        /**
+         * Sends a call, and a backup copy of it to another replica if no
+         * result arrived within the hedging percentile of the latency of the
+         * method and the budget allows.
+         */
+        private CompletableFuture<RMIResult> hedge(final InetSocketAddress address, final RMICallInfo data,
+                                                   final boolean coalesce) {
+            final ConnectionPool primary = ConnectionPool.forAddress(this.replicas.primary());
+            final LatencyHistogram latency = primary.latency(data.methodId);
+            final CompletableFuture<RMIResult> result = new CompletableFuture<RMIResult>();
+            final AtomicInteger remaining = new AtomicInteger(1);
+
+            primary.earnHedge(this.hedgeBudget);
+            sendCopy(address, data, coalesce, latency, result, remaining);
+
+            if (latency.getCount() < ConnectionPool.HEDGE_MIN_SAMPLES) {
+                return result;
+            }
+
+            long delay = latency.getCachedPercentile(this.hedgePercentile);
+
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                InetSocketAddress other = this.replicas.alternative(address);
+
+                if (result.isDone() || other == null || !primary.spendHedge()) {
+                    return;
+                }
+
+                // the first call may have failed in the meantime
+                int attempts;
+
+                do {
+                    attempts = remaining.get();
+
+                    if (attempts == 0) {
+                        return;
+                    }
+                } while (!remaining.compareAndSet(attempts, attempts + 1));
+
+                sendCopy(other, data.copy(), coalesce, latency, result, remaining);
+            });
+
+            return result;
+        }
+
+        /**
+         * Sends one copy of a hedged call. Its result completes
+         * <code>result</code>, unless another copy did so first, which
+         * cancels this one; a failure only completes <code>result</code> if
+         * no other copy is in flight. The time the copy took, or had waited
+         * when it was cancelled, is recorded in <code>latency</code>.
+         */
+        private void sendCopy(InetSocketAddress address, RMICallInfo data, boolean coalesce,
+                              final LatencyHistogram latency, final CompletableFuture<RMIResult> result,
+                              final AtomicInteger remaining) {
+            final long start = System.nanoTime();
+            final CompletableFuture<RMIResult> call = send(address, data, coalesce);
+
+            call.whenComplete((value, failure) -> {
+                if (failure == null || call.isCancelled()) {
+                    latency.record(System.nanoTime() - start);
+                }
+
+                if (failure == null) {
+                    result.complete(value);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.completeExceptionally(failure);
+                }
+            });
+
+            result.whenComplete((value, failure) -> call.cancel(false));
+        }
+
+        /**
+         * Sends a call to the skeleton at <code>address</code>, sharing the
+         * result of an identical call in flight with <code>coalesce</code>.
+         */
+        private static CompletableFuture<RMIResult> send(InetSocketAddress address, RMICallInfo data,
+                                                         boolean coalesce) {
+            ConnectionPool pool = ConnectionPool.forAddress(address);
+            return coalesce ? pool.callCoalescedAsync(data) : pool.callAsync(data);
+        }
+
+        /**
+         * Waits for the result of a call, which is cancelled if the thread is
+         * interrupted.
+         */
+        private static RMIResult await(CompletableFuture<RMIResult> call, long deadline)
+        throws RMIException {
             try {
-                Socket sock = new Socket(
-                        this.remoteAddress.getAddress(),
-                        this.remoteAddress.getPort()
-                );
-                ObjectOutputStream socketOutputStream = new ObjectOutputStream(sock.getOutputStream());
-                RMICallInfo data = new RMICallInfo(proxy.getClass().getCanonicalName(), method.getName(), args);
-                socketOutputStream.writeObject(data);
-                socketOutputStream.flush();
-
-                ObjectInputStream inputStream = new ObjectInputStream(sock.getInputStream());
-                result = (RMIResult) inputStream.readObject();
-
-                inputStream.close();
-                sock.close();
-            } catch (Throwable ex) {
-                throw new RMIException("Could not perform RMI", ex);
+                return call.get();
+            } catch (InterruptedException e) {
+                call.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new RMIException("Interrupted while waiting for RMI result", e);
+            } catch (ExecutionException e) {
+                throw failure(e.getCause(), deadline);
             }
+        }
+
+        /**
+         * Sends a call without waiting for its result. The returned future is
+         * completed with the value returned by the remote method, or
+         * exceptionally with the exception it threw or with an
+         * <code>RMIException</code> if the call could not be performed. The
+         * value is added to <code>cache</code>, if there is one.
+         */
+        private CompletableFuture<Object> invokeAsync(Method method, InetSocketAddress address,
+                                                      final RMICallInfo data, final ResultCache cache) {
+            final CompletableFuture<Object> future = new CompletableFuture<Object>();
 
+            call(method, address, data).whenComplete((result, failure) -> {
+                if (failure != null) {
+                    if (failure instanceof CompletionException && failure.getCause() != null) {
+                        failure = failure.getCause();
+                    }
+
+                    future.completeExceptionally(failure(failure, data.deadline));
+                    return;
+                }
+
+                try {
+                    Object value = attach(result);
+
+                    if (cache != null) {
+                        cache.put(data.args, value);
+                    }
+
+                    future.complete(value);
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                }
+            });
+
+            return future;
+        }
+
+        /**
+         * Returns the exception thrown when a call could not be performed. A
+         * timeout is reported as the deadline being exceeded only if the call
+         * had a deadline and it has passed.
+         *
+         * @param deadline The deadline of the call, as a value of
+         *                 <code>System.nanoTime</code>, or 0 if it has none.
+         */
+        private static RMIException failure(Throwable cause, long deadline) {
+            if (cause instanceof RMIException) {
+                return (RMIException) cause;
+            }
+
+            // the pool fails a call at its deadline, rounded to milliseconds
+            if (cause instanceof ConnectionPool.DeadlineExpiredException
+                    || (cause instanceof SocketTimeoutException && deadline != 0
+                    && System.nanoTime() - deadline >= 0)) {
+                return new DeadlineExceededException("Deadline exceeded before the result arrived", cause);
+            }
+
+            return new RMIException("Could not perform RMI", cause);
+        }
+
+        /**
+         * Returns the value of a remote call, or throws the exception that the
+         * remote method threw.
+         */
+        private static Object unwrap(RMIResult result) throws Throwable {
             if (result == null) {
                 return null;
             }
 
-            if (result.exception != null) {
+            if (result.exception instanceof InvocationTargetException) {
                 throw result.exception.getCause();
             }
 
+            // the skeleton could not invoke the method at all
+            if (result.exception instanceof RMIException) {
+                throw result.exception;
+            }
+
+            if (result.exception != null) {
+                throw new RMIException("Remote invocation failed", result.exception);
+            }
+
             return result.value;
         }
 
+        /**
+         * Returns the value of a remote call, connecting a remote iterator
+         * returned by the skeleton to the skeleton's address, so that it
+         * starts fetching elements within the timeout of the stub.
+         */
+        private Object attach(RMIResult result) throws Throwable {
+            Object value = unwrap(result);
+
+            if (value instanceof RemoteCursor) {
+                ((RemoteCursor<?>) value).attach(result.source, this.timeout);
+            }
+
+            return value;
+        }
+
         private static Method getObjectMethod(String name, Class... types) {
             try {
                 return Object.class.getMethod(name, types);
@@ -242,17 +986,26 @@ public abstract class Stub {
                 return false;
             }
 
+            if (!Objects.equals(otherProxy.replicas, this.replicas)) {
+                return false;
+            }
+
             return true;
         }
 
         private int hashcodeInternal() {
             return Objects.hash(
                     this.remoteAddress != null ? this.remoteAddress.hashCode() : null,
-                    this.originalClass.getCanonicalName());
+                    this.originalClass.getCanonicalName(),
+                    this.replicas);
         }
 
         @Override
         public String toString() {
+            if (this.replicas != null) {
+                return this.originalClass.getCanonicalName() + " at " + this.replicas;
+            }
+
             return this.originalClass.getCanonicalName() + " at " + this.remoteAddress;
         }
     }
@@ -0,0 +1,63 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of extra calls, such as backup copies or retries, which calls earn a
+ * share of.
+ * <p>
+ * <p>
+ * The budget is counted in millionths of a call, so that every call can add a
+ * small fraction of one. Saving is capped, so that a long quiet period does not
+ * allow a burst of extra calls later.
+ */
+class TokenBudget {
+    private final static long CALL = 1000000L;
+
+    private final long capacity;
+    private final AtomicLong tokens;
+
+    /**
+     * Creates a budget that saves at most <code>maxCalls</code> calls, and
+     * holds <code>initialCalls</code> at first.
+     */
+    TokenBudget(int maxCalls, int initialCalls) {
+        this.capacity = maxCalls * CALL;
+        this.tokens = new AtomicLong(initialCalls * CALL);
+    }
+
+    /**
+     * Adds a share of a call to the budget.
+     */
+    void earn(double share) {
+        long amount = (long) (share * CALL);
+        long budget;
+
+        do {
+            budget = tokens.get();
+
+            if (budget >= capacity) {
+                return;
+            }
+        } while (!tokens.compareAndSet(budget, Math.min(budget + amount, capacity)));
+    }
+
+    /**
+     * Takes a call from the budget.
+     *
+     * @return <code>false</code> if the budget is spent.
+     */
+    boolean spend() {
+        long budget;
+
+        do {
+            budget = tokens.get();
+
+            if (budget < CALL) {
+                return false;
+            }
+        } while (!tokens.compareAndSet(budget, budget - CALL));
+
+        return true;
+    }
+}
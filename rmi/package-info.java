@@ -60,6 +60,65 @@
     In case an exception is thrown remotely, it is transmitted back to the
     client.
 
+    <p>
+    Stubs created with <code>Stub.createAsync</code> implement an asynchronous
+    companion of the remote interface, whose methods return
+    <code>CompletableFuture</code> objects instead of waiting for the server.
+    This allows a few threads to have many calls in flight at the same time.
+
+    <p>
+    Calls and results larger than a threshold are compressed when both sides
+    support it. The algorithm and threshold are set with
+    <code>Skeleton.setCompression</code> for results and
+    <code>Stub.setCompression</code> for calls to a given address, and the
+    work done is reported by <code>CompressionMetrics</code>.
+
+    <p>
+    Remote methods that return a <code>RemoteIterator</code> stream their
+    results: the client receives the elements in chunks as it iterates, so
+    that large result sets never have to fit in a single message.
+
+    <p>
+    Stubs answer repeated calls to methods marked <code>Cacheable</code> from
+    a local cache, as long as the arguments are equal and the cached result
+    has not expired. Concurrent calls to methods marked
+    <code>Idempotent</code> with <code>coalesce</code> set share one call to the
+    server when their arguments are equal.
+
+    <p>
+    Calls can be given a deadline, per stub with <code>Stub.withTimeout</code>
+    or per call with <code>Deadline</code>. The deadline bounds the time to
+    connect and to wait for the result, and is sent to the skeleton, which
+    skips calls whose caller has already given up.
+
+    <p>
+    A <code>ConcurrencyLimit</code> on a method or interface, or
+    <code>Skeleton.setConcurrencyLimit</code>, bounds the number of calls the
+    skeleton executes at the same time for those methods, so that a slow
+    method cannot take all service threads. An <code>AdaptiveLimiter</code>
+    installed with <code>Skeleton.setAdaptiveLimiter</code> adjusts the number
+    of calls in flight to their measured latency.
+    <code>Skeleton.getMetrics</code> reports, for each method, the calls
+    executed, the exceptions thrown, the bytes received and sent, and
+    histograms of the time calls waited and the time the method took.
+
+    <p>
+    All stubs connecting to an address share its <code>CircuitBreaker</code>.
+    After several calls in a row fail to reach the skeleton, the breaker fails
+    calls right away for a cool-down period, then lets a probe call through
+    to find out whether the skeleton is back.
+
+    <p>
+    A stub created for a list of addresses spreads its calls over replicas of
+    the same remote object, following a <code>LoadBalancing</code> policy, and
+    skips replicas whose circuit breaker is open. Such a
+    stub, passed to <code>Stub.withHedging</code>, sends a backup copy of a
+    slow call to an <code>Idempotent</code> method to another replica, within
+    a budget of extra calls. Calls to methods marked <code>Retry</code> that
+    could not be performed are repeated after a random backoff, within a
+    budget shared by all stubs; once a call may have reached the server, only
+    <code>Idempotent</code> methods are retried.
+
     <p>
     In the typical case, the server will create both the skeleton and the
     corresponding stub, as above. The stub will then be transmitted to any
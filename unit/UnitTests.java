@@ -8,7 +8,28 @@ import test.*;
  * <p>
  * Tests run are:
  * <ul>
- * <li>{@link rmi.SampleUnitTest}</li>
+ * <li>{@link rmi.StubUnitTest}</li>
+ * <li>{@link rmi.ConnectionPoolUnitTest}</li>
+ * <li>{@link rmi.SkeletonUnitTest}</li>
+ * <li>{@link rmi.OverloadDispatchUnitTest}</li>
+ * <li>{@link rmi.AsyncStubUnitTest}</li>
+ * <li>{@link rmi.SelectorListenerUnitTest}</li>
+ * <li>{@link rmi.ServicePoolUnitTest}</li>
+ * <li>{@link rmi.VirtualThreadUnitTest}</li>
+ * <li>{@link rmi.BinaryCodecUnitTest}</li>
+ * <li>{@link rmi.SerializedFallbackUnitTest}</li>
+ * <li>{@link rmi.BulkDataUnitTest}</li>
+ * <li>{@link rmi.RemoteIteratorUnitTest}</li>
+ * <li>{@link rmi.ResultCacheUnitTest}</li>
+ * <li>{@link rmi.CoalescingUnitTest}</li>
+ * <li>{@link rmi.DeadlineUnitTest}</li>
+ * <li>{@link rmi.BulkheadUnitTest}</li>
+ * <li>{@link rmi.AdaptiveLimiterUnitTest}</li>
+ * <li>{@link rmi.LoadBalancingUnitTest}</li>
+ * <li>{@link rmi.HedgingUnitTest}</li>
+ * <li>{@link rmi.RetryUnitTest}</li>
+ * <li>{@link rmi.CircuitBreakerUnitTest}</li>
+ * <li>{@link rmi.MetricsUnitTest}</li>
  * </ul>
  */
 public class UnitTests {
@@ -24,6 +45,27 @@ public class UnitTests {
                 new Class[]{
                         //rmi.SampleUnitTest.class,
                         rmi.StubUnitTest.class,
+                        rmi.ConnectionPoolUnitTest.class,
+                        rmi.SkeletonUnitTest.class,
+                        rmi.OverloadDispatchUnitTest.class,
+                        rmi.AsyncStubUnitTest.class,
+                        rmi.SelectorListenerUnitTest.class,
+                        rmi.ServicePoolUnitTest.class,
+                        rmi.VirtualThreadUnitTest.class,
+                        rmi.BinaryCodecUnitTest.class,
+                        rmi.SerializedFallbackUnitTest.class,
+                        rmi.BulkDataUnitTest.class,
+                        rmi.ResultCacheUnitTest.class,
+                        rmi.CoalescingUnitTest.class,
+                        rmi.DeadlineUnitTest.class,
+                        rmi.BulkheadUnitTest.class,
+                        rmi.AdaptiveLimiterUnitTest.class,
+                        rmi.RemoteIteratorUnitTest.class,
+                        rmi.LoadBalancingUnitTest.class,
+                        rmi.HedgingUnitTest.class,
+                        rmi.RetryUnitTest.class,
+                        rmi.CircuitBreakerUnitTest.class,
+                        rmi.MetricsUnitTest.class,
                         };
         Series series = new Series(tests);
         SeriesReport report = series.run(3, System.out);
@@ -0,0 +1,128 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class AdaptiveLimiterUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking adaptive concurrency limit";
+
+    private final static long MILLISECOND = 1000000;
+
+    private InetSocketAddress address;
+    private ServicePoolUnitTest.BlockingServerImplementation server;
+    private Skeleton<ServicePoolUnitTest.BlockingServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7791);
+        server = new ServicePoolUnitTest.BlockingServerImplementation();
+        skeleton = new Skeleton<ServicePoolUnitTest.BlockingServer>(
+                ServicePoolUnitTest.BlockingServer.class, server, address);
+        skeleton.setAdaptiveLimiter(new AdaptiveLimiter(1, 1, 1));
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that the limit grows while latency is steady, shrinks when it
+     * rises or calls are dropped, and that the skeleton rejects calls beyond
+     * it.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 2, 100);
+
+        for (int i = 0; i < 10; i++) {
+            if (!limiter.acquire()) {
+                throw new TestFailed("call under the limit was rejected");
+            }
+        }
+
+        if (limiter.acquire() || limiter.getRejectedCalls() != 1) {
+            throw new TestFailed("call beyond the limit was admitted");
+        }
+
+        // keep the limit busy while latency stays at 1 ms
+        for (int i = 0; i < 100; i++) {
+            limiter.release(MILLISECOND);
+            limiter.acquire();
+        }
+
+        int grown = limiter.getLimit();
+
+        if (grown <= 10) {
+            throw new TestFailed("limit did not grow under steady latency: " + limiter);
+        }
+
+        limiter.dropped();
+        int backedOff = limiter.getLimit();
+
+        if (backedOff >= grown) {
+            throw new TestFailed("limit did not shrink when a call was dropped: " + limiter);
+        }
+
+        // calls start queueing
+        for (int i = 0; i < 50; i++) {
+            limiter.release(20 * MILLISECOND);
+            limiter.acquire();
+        }
+
+        if (limiter.getLimit() >= backedOff) {
+            throw new TestFailed("limit did not shrink when latency rose: " + limiter);
+        }
+
+        AsyncBlockingServer stub = Stub.createAsync(AsyncBlockingServer.class, address);
+
+        try {
+            CompletableFuture<String> admitted = stub.block();
+            CompletableFuture<String> rejected = stub.block();
+
+            try {
+                rejected.get();
+                throw new TestFailed("call beyond the limit was not rejected");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RMIException)) {
+                    throw new TestFailed("rejected call failed with unexpected exception", e);
+                }
+            }
+
+            server.released.countDown();
+
+            if (!admitted.get().equals("done")
+                    || skeleton.getAdaptiveLimiter().getRejectedCalls() != 1) {
+                throw new TestFailed("Unexpected result from RMI");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    /**
+     * Asynchronous companion of <code>ServicePoolUnitTest.BlockingServer</code>.
+     */
+    public interface AsyncBlockingServer {
+        CompletableFuture<String> block();
+    }
+
+    @Override
+    protected void clean() {
+        server.released.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+}
@@ -0,0 +1,90 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public class AsyncStubUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking asynchronous stubs";
+
+    /**
+     * Asynchronous companion of <code>PingPongServer</code>.
+     */
+    public interface AsyncPingPongServer {
+        CompletableFuture<String> ping(int idNumber);
+
+        CompletableFuture<String> ping(double idNumber);
+    }
+
+    private InetSocketAddress address;
+    private Skeleton<PingPongServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7781);
+        skeleton = new Skeleton<PingPongServer>(
+                PingPongServer.class,
+                new PingPongServerImplementation(),
+                address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Issues many calls from a single thread before waiting for any result.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AsyncPingPongServer stub = Stub.createAsync(AsyncPingPongServer.class, address);
+        List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+
+        for (int i = 0; i < 500; i++) {
+            results.add(stub.ping(i));
+        }
+
+        CompletableFuture<String> overloaded = stub.ping(14.736);
+
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                String result = results.get(i).get();
+
+                if (!result.equals("Pong " + i)) {
+                    throw new TestFailed("Unexpected result from RMI: " + result);
+                }
+            }
+
+            if (!overloaded.get().equals("Pong double 14.736")) {
+                throw new TestFailed("Unexpected result from RMI: " + overloaded.get());
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+
+        try {
+            Stub.createAsync(PingPongServer.class, address);
+            throw new TestFailed("synchronous interface accepted as asynchronous companion");
+        } catch (Error e) {
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+}
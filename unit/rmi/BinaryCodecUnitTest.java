@@ -0,0 +1,218 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryCodecUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking binary wire protocol";
+
+    /**
+     * Remote interface whose methods cover the argument encodings.
+     */
+    public interface CodecServer {
+        void primitives(int i, long l, double d, boolean z, byte b, short s, char c, float f)
+        throws RMIException;
+
+        void arrays(int[] i, long[] l, double[] d, boolean[] z, byte[] b, short[] s, char[] c,
+                    float[] f, int[] empty, int[] none) throws RMIException;
+
+        void values(Object[] values) throws RMIException;
+
+        void bulk(BulkData data, int after) throws RMIException;
+    }
+
+    public static class CodecServerImplementation implements CodecServer {
+        public void primitives(int i, long l, double d, boolean z, byte b, short s, char c, float f) {
+        }
+
+        public void arrays(int[] i, long[] l, double[] d, boolean[] z, byte[] b, short[] s, char[] c,
+                           float[] f, int[] empty, int[] none) {
+        }
+
+        public void values(Object[] values) {
+        }
+
+        public void bulk(BulkData data, int after) {
+        }
+    }
+
+    private Map<Long, MethodInvoker> methods;
+    private CompressionMetrics metrics = new CompressionMetrics();
+
+    @Override
+    protected void initialize() throws TestFailed {
+        methods = new Skeleton<CodecServer>(CodecServer.class, new CodecServerImplementation())
+                .methodsByHash();
+    }
+
+    /**
+     * Encodes calls and results with the binary protocol and checks that
+     * every kind of value survives decoding, including values that fall back
+     * to Java serialization, that shared and cyclic objects keep their
+     * shape, that large payloads are compressed, and that a call to an
+     * unknown method is skipped along with its attachments.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        ArrayList<Object> list = new ArrayList<Object>(Arrays.asList(1, "two", 3.0, null));
+        HashSet<String> set = new HashSet<String>(Arrays.asList("a", "b"));
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put("one", 1);
+        map.put("minus", -1);
+        LinkedHashMap<Integer, String> ordered = new LinkedHashMap<Integer, String>();
+        ordered.put(7, "seven");
+
+        Object[] values = new Object[]{
+                Integer.MIN_VALUE, -1, 0, 300, Long.MAX_VALUE, true, false,
+                (byte) -5, (short) 1000, 'x', 1.5f, -2.25, "r\u00e9sum\u00e9", "",
+                new byte[]{1, 2, 3}, new int[]{-1, 1 << 30}, new double[]{Math.PI},
+                new long[]{Long.MIN_VALUE, 0, Long.MAX_VALUE},
+                new String[]{"s", null}, new Object[]{1, "o"}, list, set, map, ordered,
+                Arrays.asList(1, 2), null};
+
+        try {
+            checkCall("primitives", new Object[]{
+                    -7, Long.MIN_VALUE, -2.5, true, (byte) 0x80, (short) -1, '\u20ac', Float.NaN});
+            checkCall("arrays", new Object[]{
+                    new int[]{Integer.MIN_VALUE, 0, 1}, new long[]{Long.MAX_VALUE},
+                    new double[]{Math.E}, new boolean[]{true, false}, new byte[]{1, 2},
+                    new short[]{Short.MIN_VALUE}, new char[]{'a'}, new float[]{0.5f},
+                    new int[0], null});
+            checkCall("values", new Object[]{values});
+            checkCall("arrays", new Object[]{
+                    new int[100000], null, null, null, null, null, null, null, null, null});
+
+            if (metrics.getCompressedFrames() != 1 || metrics.getDecompressedFrames() != 1
+                    || metrics.getBytesSaved() < 300000) {
+                throw new TestFailed("large call was not compressed: " + metrics);
+            }
+
+            checkReferences();
+            checkUnknownMethod();
+
+            RMIResult result = new RMIResult();
+            result.requestId = 42;
+            result.exception = new RMIException("failure");
+
+            Frames.Buffer frame = Frames.encode(result, true);
+            RMIResult decodedResult = (RMIResult) Frames.decode(
+                    frame.array(), Frames.HEADER_LENGTH, frame.size() - Frames.HEADER_LENGTH, null, metrics);
+
+            if (decodedResult.requestId != 42 || decodedResult.value != null
+                    || !"failure".equals(decodedResult.exception.getMessage())) {
+                throw new TestFailed("result was not decoded");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    /**
+     * Checks that an object appearing twice is decoded once, and that an
+     * object containing itself can be sent.
+     */
+    private void checkReferences() throws Exception {
+        int[] shared = new int[]{1, 2};
+        ArrayList<Object> cyclic = new ArrayList<Object>();
+        cyclic.add(shared);
+        cyclic.add(cyclic);
+
+        RMICallInfo call = new RMICallInfo(null, method("values"),
+                new Object[]{new Object[]{shared, cyclic, shared}});
+        Frames.Buffer frame = Frames.encode(call, true);
+        RMICallInfo decoded = (RMICallInfo) Frames.decode(
+                frame.array(), Frames.HEADER_LENGTH, frame.size() - Frames.HEADER_LENGTH,
+                methods, metrics);
+
+        Object[] values = (Object[]) decoded.args[0];
+        List<?> list = (List<?>) values[1];
+
+        if (values[0] != values[2] || list.get(0) != values[0] || list.get(1) != list
+                || !Arrays.equals((int[]) values[0], shared)) {
+            throw new TestFailed("shared objects were not decoded as references");
+        }
+    }
+
+    /**
+     * Writes a call with bulk data to a method the reader does not know,
+     * followed by another call, and checks that the second call is read
+     * intact.
+     */
+    private void checkUnknownMethod() throws Exception {
+        RMICallInfo unknown = new RMICallInfo(null, method("bulk"),
+                new Object[]{BulkData.wrap(ByteBuffer.wrap(new byte[1000])), 5});
+        RMICallInfo next = new RMICallInfo(null, method("primitives"), new Object[]{
+                1, 2L, 3.0, false, (byte) 4, (short) 5, '6', 7.0f});
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        Frames.write(stream, null, Frames.encode(unknown, true));
+        Frames.write(stream, null, Frames.encode(next, true));
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(stream.toByteArray()));
+        RMICallInfo skipped = (RMICallInfo) Frames.read(input, metrics);
+        RMICallInfo decoded = (RMICallInfo) Frames.readPayload(input, input.readInt(), methods,
+                metrics, null);
+
+        if (skipped.args != null || skipped.methodHash != unknown.methodHash) {
+            throw new TestFailed("call to an unknown method was decoded");
+        }
+
+        if (!Arrays.equals(next.args, decoded.args) || input.available() != 0) {
+            throw new TestFailed("call following a call to an unknown method was not read");
+        }
+    }
+
+    private static Method method(String name) {
+        for (Method m : CodecServer.class.getMethods()) {
+            if (m.getName().equals(name)) {
+                return m;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Encodes a call to a method of <code>CodecServer</code> and checks that
+     * the decoded call matches it.
+     */
+    private void checkCall(String name, Object[] args) throws Exception {
+        RMICallInfo call = new RMICallInfo(null, method(name), args);
+        call.requestId = 1234567;
+
+        Frames.Buffer frame = Frames.compress(Frames.encode(call, true), Compression.FAST,
+                Compression.DEFAULT_THRESHOLD, metrics);
+        RMICallInfo decoded = (RMICallInfo) Frames.decode(
+                frame.array(), Frames.HEADER_LENGTH, frame.size() - Frames.HEADER_LENGTH,
+                methods, metrics);
+
+        if (!decoded.binary || decoded.requestId != call.requestId
+                || decoded.methodHash != call.methodHash) {
+            throw new TestFailed("call header was not decoded");
+        }
+
+        if (!Arrays.deepEquals(args, decoded.args)) {
+            throw new TestFailed("arguments were not decoded: " + Arrays.deepToString(decoded.args));
+        }
+    }
+}
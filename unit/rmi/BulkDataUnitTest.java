@@ -0,0 +1,177 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkDataUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking bulk data transfer";
+
+    /**
+     * Remote interface moving bulk data in both directions.
+     */
+    public interface BulkServer {
+        BulkData echo(String label, BulkData data, int tail) throws RMIException;
+
+        BulkData file(String path) throws RMIException;
+
+        boolean isDirect(BulkData data) throws RMIException;
+    }
+
+    /**
+     * Allocator of direct buffers counting the buffers it supplied.
+     */
+    private static class DirectAllocator implements BulkData.Allocator {
+        final AtomicInteger allocated = new AtomicInteger();
+
+        public ByteBuffer allocate(int size) {
+            allocated.incrementAndGet();
+            // larger than needed, as a buffer taken from a pool may be
+            ByteBuffer buffer = ByteBuffer.allocateDirect(size + 16);
+            buffer.position(8);
+            return buffer;
+        }
+    }
+
+    public static class BulkServerImplementation implements BulkServer {
+        public BulkData echo(String label, BulkData data, int tail) {
+            return data;
+        }
+
+        public BulkData file(String path) throws RMIException {
+            try {
+                return BulkData.fromFile(Paths.get(path));
+            } catch (IOException e) {
+                throw new RMIException(e);
+            }
+        }
+
+        public boolean isDirect(BulkData data) throws RMIException {
+            try {
+                return data.asByteBuffer().isDirect();
+            } catch (IOException e) {
+                throw new RMIException(e);
+            }
+        }
+    }
+
+    private Skeleton<BulkServer> blocking;
+    private Skeleton<BulkServer> selector;
+    private Path file;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        blocking = new Skeleton<BulkServer>(BulkServer.class, new BulkServerImplementation(),
+                new InetSocketAddress("localhost", 7784));
+        selector = new Skeleton<BulkServer>(BulkServer.class, new BulkServerImplementation(),
+                new InetSocketAddress("localhost", 7785), Skeleton.Engine.NIO);
+
+        try {
+            blocking.start();
+            selector.start();
+            file = Files.createTempFile("bulk", ".bin");
+        } catch (Exception e) {
+            throw new TestFailed("unable to start skeletons", e);
+        }
+    }
+
+    /**
+     * Sends buffers to both engines and has them send a file back, checking
+     * that all bytes arrive intact.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+        new Random(7).nextBytes(bytes);
+
+        try {
+            Files.write(file, bytes);
+
+            check(blocking.getAddress(), bytes);
+            check(selector.getAddress(), bytes);
+            checkAllocator(blocking, bytes);
+            checkAllocator(selector, bytes);
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    private void check(InetSocketAddress address, byte[] bytes) throws Exception {
+        BulkServer stub = Stub.create(BulkServer.class, address);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        if (!Arrays.equals(bytes, stub.echo("direct", BulkData.wrap(direct), 1).toByteArray())) {
+            throw new TestFailed("buffer was not echoed intact");
+        }
+
+        if (stub.echo("empty", BulkData.wrap(new byte[0]), 2).size() != 0) {
+            throw new TestFailed("empty buffer was not echoed");
+        }
+
+        if (!Arrays.equals(bytes, stub.file(file.toString()).toByteArray())) {
+            throw new TestFailed("file was not transferred intact");
+        }
+    }
+
+    /**
+     * Checks that bulk data is received into the buffers of the allocators
+     * of the skeleton and of the stub.
+     */
+    private void checkAllocator(Skeleton<BulkServer> skeleton, byte[] bytes) throws Exception {
+        DirectAllocator skeletonAllocator = new DirectAllocator();
+        DirectAllocator stubAllocator = new DirectAllocator();
+        skeleton.setBulkAllocator(skeletonAllocator);
+        Stub.setBulkAllocator(skeleton.getAddress(), stubAllocator);
+
+        try {
+            BulkServer stub = Stub.create(BulkServer.class, skeleton.getAddress());
+
+            if (!stub.isDirect(BulkData.wrap(bytes)) || skeletonAllocator.allocated.get() != 1) {
+                throw new TestFailed("skeleton did not receive into the buffer of its allocator");
+            }
+
+            BulkData received = stub.file(file.toString());
+
+            if (!received.asByteBuffer().isDirect() || stubAllocator.allocated.get() != 1
+                    || !Arrays.equals(bytes, received.toByteArray())) {
+                throw new TestFailed("stub did not receive into the buffer of its allocator");
+            }
+
+            if (!Arrays.equals(bytes, stub.echo("pooled", BulkData.wrap(bytes), 3).toByteArray())) {
+                throw new TestFailed("buffer was not echoed intact through direct buffers");
+            }
+        } finally {
+            skeleton.setBulkAllocator(null);
+            Stub.setBulkAllocator(skeleton.getAddress(), null);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        blocking.stop();
+        selector.stop();
+
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+public class BulkheadUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking per-method concurrency limits";
+
+    /**
+     * Remote interface with a slow, limited method and a fast one.
+     */
+    public interface MixedServer {
+        @ConcurrencyLimit(value = 1, queue = 1)
+        String slow() throws RMIException;
+
+        String fast() throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>MixedServer</code>.
+     */
+    public interface AsyncMixedServer {
+        CompletableFuture<String> slow();
+
+        CompletableFuture<String> fast();
+    }
+
+    public static class MixedServerImplementation implements MixedServer {
+        final CountDownLatch released = new CountDownLatch(1);
+
+        public String slow() throws RMIException {
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+
+            return "slow";
+        }
+
+        public String fast() {
+            return "fast";
+        }
+    }
+
+    private InetSocketAddress address;
+    private MixedServerImplementation server;
+    private Skeleton<MixedServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7790);
+        server = new MixedServerImplementation();
+        skeleton = new Skeleton<MixedServer>(MixedServer.class, server, address);
+        skeleton.setServiceLimits(2, 4);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Fills the limit and the queue of the slow method, and checks that
+     * further calls to it are rejected while the fast method still gets a
+     * service thread.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AsyncMixedServer stub = Stub.createAsync(AsyncMixedServer.class, address);
+        Bulkhead bulkhead = skeleton.getConcurrencyLimits().get("slow()");
+
+        try {
+            if (bulkhead == null || skeleton.getConcurrencyLimits().containsKey("fast()")) {
+                throw new TestFailed("annotated limits were not applied");
+            }
+
+            CompletableFuture<String> running = stub.slow();
+            CompletableFuture<String> queued = stub.slow();
+            CompletableFuture<String> rejected = stub.slow();
+
+            try {
+                rejected.get();
+                throw new TestFailed("call beyond the limit and queue was not rejected");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RMIException)) {
+                    throw new TestFailed("rejected call failed with unexpected exception", e);
+                }
+            }
+
+            // one of the two service threads is still free
+            for (int i = 0; i < 3; i++) {
+                if (!stub.fast().get().equals("fast")) {
+                    throw new TestFailed("Unexpected result from RMI");
+                }
+            }
+
+            if (bulkhead.getActiveCalls() != 1 || bulkhead.getQueuedCalls() != 1
+                    || bulkhead.getRejectedCalls() != 1) {
+                throw new TestFailed("unexpected bulkhead state: " + bulkhead);
+            }
+
+            server.released.countDown();
+
+            if (!running.get().equals("slow") || !queued.get().equals("slow")) {
+                throw new TestFailed("Unexpected result from RMI");
+            }
+
+            skeleton.setConcurrencyLimit("fast", 2, 0);
+            stub.fast().get();
+
+            if (skeleton.getConcurrencyLimits().get("fast()").getCompletedCalls() != 1) {
+                throw new TestFailed("configured limit was not applied");
+            }
+
+            try {
+                skeleton.setConcurrencyLimit("missing", 1, 0);
+                throw new TestFailed("limit was set on a missing method");
+            } catch (IllegalArgumentException e) {
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        server.released.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+}
@@ -0,0 +1,214 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class CircuitBreakerUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking circuit breakers";
+
+    /**
+     * Remote interface with a method that returns and one that throws.
+     */
+    public interface BreakerServer {
+        int ping() throws RMIException;
+
+        void fail() throws RMIException;
+    }
+
+    public static class BreakerServerImplementation implements BreakerServer {
+        public int ping() {
+            return 1;
+        }
+
+        public void fail() throws RMIException {
+            throw new RMIException("failing on purpose");
+        }
+    }
+
+    private InetSocketAddress address;
+    private Skeleton<BreakerServer> skeleton;
+    private final List<String> transitions = new CopyOnWriteArrayList<String>();
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7798);
+        Stub.setCircuitBreaker(address, 2, 300);
+        Stub.getCircuitBreaker(address).addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void stateChanged(CircuitBreaker breaker, CircuitBreaker.State from,
+                                     CircuitBreaker.State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    private void start() throws TestFailed {
+        skeleton = new Skeleton<BreakerServer>(BreakerServer.class, new BreakerServerImplementation(),
+                address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that the breaker opens after calls fail to connect, fails calls
+     * without sending them while open, closes after a successful probe and
+     * opens again after a failed one.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        CircuitBreaker breaker = Stub.getCircuitBreaker(address);
+        BreakerServer stub = Stub.create(BreakerServer.class, address);
+
+        try {
+            checkLateResults();
+
+            for (int i = 0; i < 2; i++) {
+                expectFailure(stub, RMIException.class);
+            }
+
+            if (breaker.getState() != CircuitBreaker.State.OPEN) {
+                throw new TestFailed("breaker did not open: " + breaker);
+            }
+
+            long start = System.currentTimeMillis();
+            expectFailure(stub, CircuitOpenException.class);
+
+            if (System.currentTimeMillis() - start > 100 || breaker.getRejectedCalls() != 1) {
+                throw new TestFailed("open breaker did not fail the call right away");
+            }
+
+            start();
+            Thread.sleep(350);
+
+            if (stub.ping() != 1 || breaker.getState() != CircuitBreaker.State.CLOSED) {
+                throw new TestFailed("successful probe did not close the breaker: " + breaker);
+            }
+
+            // exceptions thrown by the remote method show the skeleton is up
+            for (int i = 0; i < 3; i++) {
+                try {
+                    stub.fail();
+                } catch (RMIException e) {
+                }
+            }
+
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                throw new TestFailed("remote exceptions opened the breaker");
+            }
+
+            skeleton.stop();
+
+            for (int i = 0; i < 2; i++) {
+                expectFailure(stub, RMIException.class);
+            }
+
+            Thread.sleep(350);
+            expectFailure(stub, RMIException.class);
+            expectFailure(stub, CircuitOpenException.class);
+
+            List<String> expected = Arrays.asList("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED",
+                    "CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN");
+
+            if (!transitions.equals(expected)) {
+                throw new TestFailed("unexpected transitions: " + transitions);
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    /**
+     * Checks that outcomes of calls other than the probe, arriving while the
+     * breaker is open or half open, do not change its state, and that a
+     * probe which never completes does not keep the breaker half open
+     * forever.
+     */
+    private void checkLateResults() throws Throwable {
+        CircuitBreaker breaker = new CircuitBreaker(new InetSocketAddress("localhost", 7801));
+        breaker.configure(1, 100);
+        long early = breaker.allow();
+        long late = breaker.allow();
+        breaker.failed(early);
+        breaker.succeeded(late);
+
+        if (breaker.getState() != CircuitBreaker.State.OPEN) {
+            throw new TestFailed("late result closed an open breaker: " + breaker);
+        }
+
+        Thread.sleep(150);
+        long lost = breaker.allow();
+
+        if (lost == CircuitBreaker.REJECTED || breaker.allow() != CircuitBreaker.REJECTED) {
+            throw new TestFailed("half open breaker did not allow exactly one probe");
+        }
+
+        breaker.succeeded(late);
+        breaker.failed(late);
+
+        if (breaker.getState() != CircuitBreaker.State.HALF_OPEN) {
+            throw new TestFailed("outcome of a call other than the probe was counted: " + breaker);
+        }
+
+        Thread.sleep(150);
+
+        if (!breaker.isAvailable()) {
+            throw new TestFailed("breaker kept waiting for a lost probe: " + breaker);
+        }
+
+        long probe = breaker.allow();
+        breaker.succeeded(lost);
+
+        if (probe == CircuitBreaker.REJECTED || breaker.getState() != CircuitBreaker.State.HALF_OPEN) {
+            throw new TestFailed("lost probe decided the state of the breaker: " + breaker);
+        }
+
+        breaker.succeeded(probe);
+
+        if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+            throw new TestFailed("successful probe did not close the breaker: " + breaker);
+        }
+    }
+
+    /**
+     * Calls the stub, expecting a failure of exactly the given class.
+     */
+    private static void expectFailure(BreakerServer stub, Class<? extends RMIException> type)
+    throws TestFailed {
+        try {
+            stub.ping();
+            throw new TestFailed("call to a stopped skeleton returned");
+        } catch (RMIException e) {
+            if (e.getClass() != type) {
+                throw new TestFailed("call failed with " + e.getClass().getSimpleName()
+                        + " instead of " + type.getSimpleName(), e);
+            }
+        }
+    }
+
+    @Override
+    protected void clean() {
+        Stub.setCircuitBreaker(address, CircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                CircuitBreaker.DEFAULT_COOL_DOWN);
+
+        if (skeleton != null) {
+            skeleton.stop();
+            skeleton = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoalescingUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking coalescing of identical calls";
+
+    private final static int CALLERS = 20;
+
+    /**
+     * Remote interface with an idempotent lookup.
+     */
+    public interface HotKeyServer {
+        @Idempotent(coalesce = true)
+        String get(String key) throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>HotKeyServer</code>.
+     */
+    public interface AsyncHotKeyServer {
+        @Idempotent(coalesce = true)
+        CompletableFuture<String> get(String key);
+    }
+
+    public static class HotKeyServerImplementation implements HotKeyServer {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch released = new CountDownLatch(1);
+
+        public String get(String key) throws RMIException {
+            calls.incrementAndGet();
+
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+
+            if (key.equals("missing")) {
+                throw new IllegalArgumentException(key);
+            }
+
+            return "value of " + key;
+        }
+    }
+
+    private InetSocketAddress address;
+    private HotKeyServerImplementation server;
+    private Skeleton<HotKeyServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7788);
+        server = new HotKeyServerImplementation();
+        skeleton = new Skeleton<HotKeyServer>(HotKeyServer.class, server, address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Makes many concurrent calls for two keys, one of which fails, and
+     * checks that the server executes each key once while every caller gets
+     * the result.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AsyncHotKeyServer stub = Stub.createAsync(AsyncHotKeyServer.class, address);
+        ArrayList<CompletableFuture<String>> hits = new ArrayList<CompletableFuture<String>>();
+        ArrayList<CompletableFuture<String>> misses = new ArrayList<CompletableFuture<String>>();
+
+        try {
+            for (int i = 0; i < CALLERS; i++) {
+                hits.add(stub.get("hot"));
+                misses.add(stub.get("missing"));
+            }
+
+            server.released.countDown();
+
+            for (CompletableFuture<String> hit : hits) {
+                if (!hit.get().equals("value of hot")) {
+                    throw new TestFailed("Unexpected result from RMI");
+                }
+            }
+
+            for (CompletableFuture<String> miss : misses) {
+                try {
+                    miss.get();
+                    throw new TestFailed("remote exception was not shared");
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof IllegalArgumentException)) {
+                        throw new TestFailed("unexpected exception", e);
+                    }
+                }
+            }
+
+            if (server.calls.get() != 2 || Stub.getCoalescedCalls(address) != 2 * (CALLERS - 1)) {
+                throw new TestFailed("identical calls were not coalesced: " + server.calls.get()
+                        + " calls executed");
+            }
+
+            // calls made after the result arrived are sent again
+            if (!stub.get("hot").get().equals("value of hot") || server.calls.get() != 3) {
+                throw new TestFailed("completed call was reused");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        server.released.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+}
@@ -0,0 +1,237 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionPoolUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking stub connection pooling";
+
+    private InetSocketAddress address;
+    private Skeleton<PingPongServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7779);
+        skeleton = new Skeleton<PingPongServer>(
+                PingPongServer.class,
+                new PingPongServerImplementation(),
+                address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that sequential calls share one connection, that concurrent calls
+     * are pipelined over a bounded number of connections, and that connections
+     * closed by a stopped skeleton are not reused.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        PingPongServer stub = Stub.create(PingPongServer.class, address);
+        ConnectionPool pool = ConnectionPool.forAddress(address);
+
+        ping(stub, 10);
+
+        if (pool.connectionCount() != 1) {
+            throw new TestFailed("sequential calls did not reuse a single connection");
+        }
+
+        checkEncodingFailure(pool);
+        checkSlowConnection();
+
+        pingConcurrently(stub, 64, 50);
+
+        if (pool.connectionCount() > ConnectionPool.DEFAULT_MAX_CONNECTIONS) {
+            throw new TestFailed("concurrent calls opened too many connections");
+        }
+
+        skeleton.stop();
+
+        // a call written to a connection the skeleton is closing may have
+        // been executed, so it fails rather than being sent again
+        long deadline = System.currentTimeMillis() + 1000;
+
+        while (pool.openConnectionCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TestFailed("connections closed by the skeleton were not noticed");
+            }
+
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to restart skeleton", e);
+        }
+
+        ping(stub, 3);
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /**
+     * Checks that a call failing to encode is not left waiting for a result
+     * on its connection, which would then never become idle.
+     */
+    private void checkEncodingFailure(ConnectionPool pool) throws TestFailed {
+        RMICallInfo info;
+
+        try {
+            info = new RMICallInfo(PingPongServer.class.getName(),
+                    PingPongServer.class.getMethod("ping", int.class), new Object[]{"not a number"});
+        } catch (NoSuchMethodException e) {
+            throw new TestFailed("unable to find remote method", e);
+        }
+
+        try {
+            pool.callAsync(info);
+            throw new TestFailed("call with an argument that cannot be written was sent");
+        } catch (RuntimeException e) {
+        }
+
+        try {
+            if (pool.connectionCount() != 1 || pool.acquire(0).pendingCount() != 0) {
+                throw new TestFailed("call that failed to encode is still pending");
+            }
+        } catch (IOException e) {
+            throw new TestFailed("unable to acquire connection", e);
+        }
+    }
+
+    /**
+     * Checks that a connection whose handshake stalls does not hold up calls
+     * that can use a connection already open.
+     */
+    private void checkSlowConnection() throws TestFailed {
+        InetSocketAddress stalling = new InetSocketAddress("localhost", 7801);
+
+        try (ServerSocket server = new ServerSocket()) {
+            server.bind(stalling);
+            final ConnectionPool pool = new ConnectionPool(stalling, 2, 1, 30000);
+            final Socket[] accepted = new Socket[1];
+
+            // answer the hello call of the first connection only, and never
+            // accept the second
+            Thread skeleton = new Thread(() -> {
+                try {
+                    accepted[0] = server.accept();
+                    DataInputStream input = new DataInputStream(
+                            new BufferedInputStream(accepted[0].getInputStream()));
+                    RMICallInfo hello = (RMICallInfo) Frames.read(input, new CompressionMetrics());
+                    RMIResult reply = new RMIResult();
+                    reply.requestId = hello.requestId;
+                    reply.exception = new RMIException("Method requested by remote client does not exist");
+                    Frames.write(accepted[0].getOutputStream(), null, Frames.encode(reply));
+                } catch (Exception e) {
+                }
+            });
+            skeleton.start();
+
+            ConnectionPool.MultiplexedConnection busy = pool.acquire(0);
+            busy.send(new RMICallInfo(PingPongServer.class.getName(),
+                    PingPongServer.class.getMethod("ping", int.class), new Object[]{1}));
+
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            Thread opener = new Thread(() -> {
+                try {
+                    pool.acquire(deadline);
+                } catch (IOException e) {
+                }
+            });
+            opener.start();
+            Thread.sleep(100);
+
+            long start = System.currentTimeMillis();
+
+            if (pool.acquire(0) != busy || System.currentTimeMillis() - start > 200) {
+                throw new TestFailed("connection being opened held up the open one");
+            }
+
+            opener.join();
+            busy.close(null);
+            skeleton.join();
+
+            if (accepted[0] != null) {
+                accepted[0].close();
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    private void pingConcurrently(final PingPongServer stub, int threads, final int times)
+    throws TestFailed {
+        final TestFailed[] failure = new TestFailed[1];
+        Thread[] workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        ping(stub, times);
+                    } catch (TestFailed e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    private void ping(PingPongServer stub, int times) throws TestFailed {
+        for (int i = 0; i < times; i++) {
+            String result;
+
+            try {
+                result = stub.ping(i);
+            } catch (Throwable e) {
+                throw new TestFailed("this should not throw exceptions", e);
+            }
+
+            if (!result.equals("Pong " + i)) {
+                throw new TestFailed("Unexpected result from RMI: " + result);
+            }
+        }
+    }
+}
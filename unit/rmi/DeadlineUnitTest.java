@@ -0,0 +1,175 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeadlineUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking call deadlines";
+
+    /**
+     * Remote interface whose methods take their time.
+     */
+    public interface SlowServer {
+        long remaining() throws RMIException;
+
+        void sleep(long millis) throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>SlowServer</code>.
+     */
+    public interface AsyncSlowServer {
+        CompletableFuture<Void> sleep(long millis);
+    }
+
+    public static class SlowServerImplementation implements SlowServer {
+        final AtomicInteger sleeps = new AtomicInteger();
+
+        public long remaining() {
+            Deadline deadline = Deadline.current();
+            return deadline == null ? -1 : deadline.remaining();
+        }
+
+        public void sleep(long millis) throws RMIException {
+            sleeps.incrementAndGet();
+
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+        }
+    }
+
+    private InetSocketAddress address;
+    private SlowServerImplementation server;
+    private Skeleton<SlowServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7789);
+        server = new SlowServerImplementation();
+        skeleton = new Skeleton<SlowServer>(SlowServer.class, server, address);
+        skeleton.setServiceLimits(1, 10);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that calls fail once their deadline passes, that the deadline
+     * reaches the server, and that the server drops calls that can no longer
+     * complete in time.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        SlowServer stub = Stub.create(SlowServer.class, address);
+        AsyncSlowServer asyncStub = Stub.createAsync(AsyncSlowServer.class, address);
+
+        try {
+            if (stub.remaining() != -1) {
+                throw new TestFailed("call without deadline reached the server with one");
+            }
+
+            Deadline deadline = Deadline.after(1000);
+
+            try {
+                long remaining = stub.remaining();
+
+                if (remaining <= 0 || remaining > 1000) {
+                    throw new TestFailed("deadline did not reach the server: " + remaining);
+                }
+            } finally {
+                deadline.close();
+            }
+
+            // timers of calls that returned in time must not keep them alive
+            SlowServer patient = Stub.withTimeout(stub, 30000);
+
+            for (int i = 0; i < 50; i++) {
+                patient.remaining();
+            }
+
+            // timers are cancelled by the reader thread, just after the result
+            long cancelled = System.currentTimeMillis() + 500;
+
+            while (ConnectionPool.scheduledTimers() != 0) {
+                if (System.currentTimeMillis() > cancelled) {
+                    throw new TestFailed("timers of completed calls were kept: "
+                            + ConnectionPool.scheduledTimers());
+                }
+
+                Thread.sleep(10);
+            }
+
+            long start = System.currentTimeMillis();
+
+            try {
+                Stub.withTimeout(stub, 100).sleep(500);
+                throw new TestFailed("call did not fail at its deadline");
+            } catch (DeadlineExceededException e) {
+            }
+
+            if (System.currentTimeMillis() - start > 400) {
+                throw new TestFailed("call failed long after its deadline");
+            }
+
+            // wait for the only service thread to finish the abandoned call
+            Thread.sleep(500);
+            server.sleeps.set(0);
+
+            CompletableFuture<Void> blocking = asyncStub.sleep(300);
+            CompletableFuture<Void> expiring = Stub.withTimeout(asyncStub, 100).sleep(0);
+
+            try {
+                expiring.get();
+                throw new TestFailed("queued call did not fail at its deadline");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof DeadlineExceededException)) {
+                    throw new TestFailed("queued call failed with unexpected exception", e);
+                }
+            }
+
+            blocking.get();
+            Thread.sleep(50);
+
+            if (server.sleeps.get() != 1) {
+                throw new TestFailed("server executed a call whose caller had given up");
+            }
+
+            // sleep() has taken hundreds of milliseconds so far
+            try {
+                Stub.withTimeout(stub, 200).sleep(0);
+                throw new TestFailed("call that could not complete in time was executed");
+            } catch (DeadlineExceededException e) {
+            }
+
+            if (server.sleeps.get() != 1 || skeleton.getDroppedCalls() != 2) {
+                throw new TestFailed("late calls were not dropped: " + skeleton.getDroppedCalls());
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+}
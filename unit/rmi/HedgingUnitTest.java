@@ -0,0 +1,183 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class HedgingUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking hedged calls";
+
+    /**
+     * Remote interface of the replicas.
+     */
+    public interface ReplicaServer {
+        @Idempotent
+        int id() throws RMIException;
+    }
+
+    public static class ReplicaServerImplementation implements ReplicaServer {
+        final int id;
+        volatile long delay;
+
+        ReplicaServerImplementation(int id) {
+            this.id = id;
+        }
+
+        public int id() throws RMIException {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+
+            return id;
+        }
+    }
+
+    private List<InetSocketAddress> addresses;
+    private ReplicaServerImplementation[] servers;
+    private List<Skeleton<ReplicaServer>> skeletons;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        addresses = Arrays.asList(new InetSocketAddress("localhost", 7794),
+                new InetSocketAddress("localhost", 7795));
+        servers = new ReplicaServerImplementation[2];
+        skeletons = new ArrayList<Skeleton<ReplicaServer>>();
+
+        for (int i = 0; i < 2; i++) {
+            servers[i] = new ReplicaServerImplementation(i);
+            Skeleton<ReplicaServer> skeleton = new Skeleton<ReplicaServer>(ReplicaServer.class,
+                    servers[i], addresses.get(i));
+            skeletons.add(skeleton);
+
+            try {
+                skeleton.start();
+            } catch (RMIException e) {
+                throw new TestFailed("unable to start skeleton", e);
+            }
+        }
+    }
+
+    /**
+     * Records latencies while both replicas are fast, slows one of them down,
+     * and checks that its calls are answered by the other one, as long as the
+     * budget allows.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            checkCachedThreshold();
+
+            ReplicaServer stub = Stub.withHedging(
+                    Stub.create(ReplicaServer.class, addresses, LoadBalancing.ROUND_ROBIN), 90, 0.5);
+
+            // the threshold is cached, so record latencies well above the
+            // jitter of the fast calls that follow
+            servers[0].delay = 20;
+            servers[1].delay = 20;
+
+            for (int i = 0; i < ConnectionPool.HEDGE_MIN_SAMPLES; i++) {
+                stub.id();
+            }
+
+            if (Stub.getHedgedCalls(addresses.get(0)) != 0) {
+                throw new TestFailed("calls were hedged while both replicas were fast");
+            }
+
+            servers[0].delay = 300;
+            servers[1].delay = 0;
+            long start = System.currentTimeMillis();
+
+            for (int i = 0; i < 4; i++) {
+                if (stub.id() != 1) {
+                    throw new TestFailed("result did not come from the fast replica");
+                }
+            }
+
+            if (System.currentTimeMillis() - start >= 300) {
+                throw new TestFailed("calls to the slow replica were not hedged");
+            }
+
+            if (Stub.getHedgedCalls(addresses.get(0)) != 2) {
+                throw new TestFailed("unexpected number of hedged calls: "
+                        + Stub.getHedgedCalls(addresses.get(0)));
+            }
+
+            // a stub with its own budget, which allows no backup calls yet
+            ReplicaServer frugal = Stub.withHedging(Stub.create(ReplicaServer.class,
+                    Arrays.asList(addresses.get(1), addresses.get(0)), LoadBalancing.ROUND_ROBIN),
+                    90, 0.01);
+            servers[0].delay = 0;
+
+            for (int i = 0; i < ConnectionPool.HEDGE_MIN_SAMPLES; i++) {
+                frugal.id();
+            }
+
+            servers[0].delay = 300;
+            frugal.id();
+
+            if (frugal.id() != 0 || Stub.getHedgedCalls(addresses.get(1)) != 0) {
+                throw new TestFailed("call was hedged beyond the budget");
+            }
+
+            try {
+                Stub.withHedging(Stub.create(ReplicaServer.class, addresses.get(0)), 90, 0.1);
+                throw new TestFailed("stub for a single address was accepted for hedging");
+            } catch (IllegalArgumentException e) {
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    /**
+     * Checks that the percentile hedged calls wait for is computed again
+     * only after enough new latencies were recorded.
+     */
+    private void checkCachedThreshold() throws TestFailed {
+        LatencyHistogram latency = new LatencyHistogram();
+
+        for (int i = 0; i < ConnectionPool.HEDGE_MIN_SAMPLES; i++) {
+            latency.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+
+        long fast = latency.getCachedPercentile(90);
+
+        for (int i = 0; i < LatencyHistogram.REFRESH_SAMPLES - 1; i++) {
+            latency.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        if (latency.getCachedPercentile(90) != fast) {
+            throw new TestFailed("cached percentile was computed again too soon");
+        }
+
+        latency.record(TimeUnit.MILLISECONDS.toNanos(10));
+
+        if (latency.getCachedPercentile(90) != latency.getPercentile(90)
+                || latency.getCount() != ConnectionPool.HEDGE_MIN_SAMPLES + LatencyHistogram.REFRESH_SAMPLES) {
+            throw new TestFailed("cached percentile was not computed again");
+        }
+    }
+
+    @Override
+    protected void clean() {
+        for (Skeleton<ReplicaServer> skeleton : skeletons) {
+            skeleton.stop();
+        }
+
+        skeletons = null;
+    }
+}
@@ -0,0 +1,219 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadBalancingUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking load balancing over replicas";
+
+    /**
+     * Remote interface of the replicas.
+     */
+    public interface ReplicaServer {
+        int id() throws RMIException;
+
+        int hold() throws RMIException;
+    }
+
+    public static class ReplicaServerImplementation implements ReplicaServer {
+        final int id;
+        final Semaphore released = new Semaphore(0);
+        final AtomicInteger held = new AtomicInteger();
+
+        ReplicaServerImplementation(int id) {
+            this.id = id;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        public int hold() throws RMIException {
+            held.incrementAndGet();
+
+            try {
+                released.acquire();
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            } finally {
+                held.decrementAndGet();
+            }
+
+            return id;
+        }
+    }
+
+    private List<InetSocketAddress> addresses;
+    private ReplicaServerImplementation[] servers;
+    private List<Skeleton<ReplicaServer>> skeletons;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        addresses = Arrays.asList(new InetSocketAddress("localhost", 7792),
+                new InetSocketAddress("localhost", 7793));
+        servers = new ReplicaServerImplementation[2];
+        skeletons = new ArrayList<Skeleton<ReplicaServer>>();
+
+        for (int i = 0; i < 2; i++) {
+            servers[i] = new ReplicaServerImplementation(i);
+            skeletons.add(start(i));
+        }
+    }
+
+    private Skeleton<ReplicaServer> start(int replica) throws TestFailed {
+        Skeleton<ReplicaServer> skeleton = new Skeleton<ReplicaServer>(ReplicaServer.class,
+                servers[replica], addresses.get(replica));
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        return skeleton;
+    }
+
+    /**
+     * Checks that calls are spread over both replicas, steered away from a
+     * busy one, and kept away from a stopped one until it is started again.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            ReplicaServer stub = Stub.create(ReplicaServer.class, addresses, LoadBalancing.ROUND_ROBIN);
+
+            if (!stub.equals(Stub.create(ReplicaServer.class, addresses, LoadBalancing.ROUND_ROBIN))
+                    || stub.equals(Stub.create(ReplicaServer.class, addresses,
+                    LoadBalancing.LEAST_OUTSTANDING))) {
+                throw new TestFailed("stubs for replicas are not compared by addresses and policy");
+            }
+
+            int[] counts = new int[2];
+
+            for (int i = 0; i < 10; i++) {
+                counts[stub.id()]++;
+            }
+
+            if (counts[0] != 5 || counts[1] != 5) {
+                throw new TestFailed("round robin did not alternate replicas: "
+                        + Arrays.toString(counts));
+            }
+
+            checkSteering(LoadBalancing.LEAST_OUTSTANDING);
+            checkSteering(LoadBalancing.POWER_OF_TWO_CHOICES);
+            checkEjection(stub);
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    /**
+     * Holds a call on one replica, and checks that the policy sends the
+     * calls that follow to the other one.
+     */
+    private void checkSteering(LoadBalancing policy) throws Throwable {
+        final ReplicaServer stub = Stub.create(ReplicaServer.class, addresses, policy);
+        Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    stub.hold();
+                } catch (RMIException e) {
+                }
+            }
+        };
+
+        holder.start();
+
+        while (servers[0].held.get() + servers[1].held.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        int busy = servers[0].held.get() == 1 ? 0 : 1;
+
+        for (int i = 0; i < 5; i++) {
+            if (stub.id() == busy) {
+                throw new TestFailed(policy + " sent a call to the busy replica");
+            }
+        }
+
+        servers[busy].released.release();
+        holder.join();
+    }
+
+    /**
+     * Stops a replica, checks that it is ejected after repeated failures,
+     * and admitted again once its skeleton is restarted.
+     */
+    private void checkEjection(ReplicaServer stub) throws Throwable {
+        ConnectionPool stopped = ConnectionPool.forAddress(addresses.get(1));
+        Stub.setCircuitBreaker(addresses.get(1), 3, 500);
+        skeletons.get(1).stop();
+        int failures = 0;
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                if (stub.id() != 0) {
+                    throw new TestFailed("call was performed by a stopped replica");
+                }
+            } catch (RMIException e) {
+                failures++;
+            }
+        }
+
+        if (failures != 3 || !stopped.isEjected()) {
+            throw new TestFailed("stopped replica was not ejected after 3 failures: " + failures);
+        }
+
+        skeletons.set(1, start(1));
+        long deadline = System.currentTimeMillis() + 2000;
+
+        while (stopped.isEjected()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TestFailed("restarted replica was not admitted again");
+            }
+
+            Thread.sleep(10);
+        }
+
+        int[] counts = new int[2];
+
+        for (int i = 0; i < 4; i++) {
+            counts[stub.id()]++;
+        }
+
+        if (counts[1] == 0) {
+            throw new TestFailed("admitted replica received no calls");
+        }
+    }
+
+    @Override
+    protected void clean() {
+        Stub.setCircuitBreaker(addresses.get(1), CircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+                CircuitBreaker.DEFAULT_COOL_DOWN);
+
+        for (ReplicaServerImplementation server : servers) {
+            server.released.release(10);
+        }
+
+        for (Skeleton<ReplicaServer> skeleton : skeletons) {
+            skeleton.stop();
+        }
+
+        skeletons = null;
+    }
+}
@@ -0,0 +1,141 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking method metrics";
+
+    /**
+     * Remote interface with a fast, a slow and a failing method.
+     */
+    public interface MetricsServer {
+        int echo(byte[] data) throws RMIException;
+
+        void sleep(long millis) throws RMIException;
+
+        void fail() throws RMIException;
+    }
+
+    public static class MetricsServerImplementation implements MetricsServer {
+        public int echo(byte[] data) {
+            return data.length;
+        }
+
+        public void sleep(long millis) throws RMIException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+        }
+
+        public void fail() throws RMIException {
+            throw new RMIException("failing on purpose");
+        }
+    }
+
+    private Skeleton<MetricsServer> skeleton;
+    private InetSocketAddress address;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7799);
+        skeleton = new Skeleton<MetricsServer>(MetricsServer.class, new MetricsServerImplementation(),
+                address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that calls, errors, bytes and latencies are counted for each
+     * method separately.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            MetricsServer stub = Stub.create(MetricsServer.class, address);
+            Map<String, MethodMetrics> metrics = skeleton.getMetrics();
+
+            if (metrics.size() != 3) {
+                throw new TestFailed("unexpected methods in metrics: " + metrics.keySet());
+            }
+
+            MethodMetrics echo = metrics.get(RMIHelper.methodId(
+                    MetricsServer.class.getMethod("echo", byte[].class)));
+            MethodMetrics sleep = metrics.get(RMIHelper.methodId(
+                    MetricsServer.class.getMethod("sleep", long.class)));
+            MethodMetrics fail = metrics.get(RMIHelper.methodId(
+                    MetricsServer.class.getMethod("fail")));
+
+            for (int i = 0; i < 10; i++) {
+                stub.echo(new byte[10000]);
+            }
+
+            for (int i = 0; i < 3; i++) {
+                stub.sleep(50);
+
+                try {
+                    stub.fail();
+                } catch (RMIException e) {
+                }
+            }
+
+            // the result is counted after the stub may have received it
+            Thread.sleep(50);
+
+            if (echo.getCalls() != 10 || echo.getErrors() != 0 || sleep.getCalls() != 3
+                    || fail.getCalls() != 3 || fail.getErrors() != 3) {
+                throw new TestFailed("unexpected call counts: " + metrics);
+            }
+
+            if (echo.getBytesIn() < 10 * 10000 || echo.getBytesOut() <= 0
+                    || echo.getBytesOut() >= echo.getBytesIn()) {
+                throw new TestFailed("unexpected byte counts: " + echo);
+            }
+
+            if (sleep.getExecutionTime().getCount() != 3
+                    || sleep.getExecutionTime().getPercentile(50) < TimeUnit.MILLISECONDS.toNanos(50)
+                    || echo.getExecutionTime().getPercentile(50) >= TimeUnit.MILLISECONDS.toNanos(50)) {
+                throw new TestFailed("unexpected execution times: " + metrics);
+            }
+
+            if (sleep.getQueueTime().getCount() != 3) {
+                throw new TestFailed("queue times were not recorded: " + sleep);
+            }
+
+            // latencies below a microsecond keep their resolution
+            LatencyHistogram latency = new LatencyHistogram();
+            latency.record(200);
+            latency.record(5000);
+
+            if (latency.getPercentile(50) < 200 || latency.getPercentile(50) > 212
+                    || latency.getPercentile(100) < 5000 || latency.getPercentile(100) > 5300) {
+                throw new TestFailed("unexpected percentiles: " + latency);
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+}
@@ -0,0 +1,127 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+public class OverloadDispatchUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking dispatch of overloaded methods";
+
+    /**
+     * Remote interface whose overloads all accept an integer argument at run
+     * time.
+     */
+    public interface OverloadServer {
+        String ping(int value) throws RMIException;
+
+        String ping(long value) throws RMIException;
+
+        String ping(double value) throws RMIException;
+
+        String ping(Object value) throws RMIException;
+    }
+
+    public static class OverloadServerImplementation implements OverloadServer {
+        public String ping(int value) {
+            return "int " + value;
+        }
+
+        public String ping(long value) {
+            return "long " + value;
+        }
+
+        public String ping(double value) {
+            return "double " + value;
+        }
+
+        public String ping(Object value) {
+            return "Object " + value;
+        }
+    }
+
+    private InetSocketAddress address;
+    private Skeleton<OverloadServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7803);
+        skeleton = new Skeleton<OverloadServer>(OverloadServer.class,
+                new OverloadServerImplementation(), address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Calls every overload through a stub, which speaks the binary protocol,
+     * and through calls serialized with Java serialization, checking that
+     * each one reaches the exact method it was made for.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            OverloadServer stub = Stub.create(OverloadServer.class, address);
+
+            check("binary", stub.ping(7), "int 7");
+            check("binary", stub.ping(7L), "long 7");
+            check("binary", stub.ping(7.0), "double 7.0");
+            check("binary", stub.ping((Object) 7), "Object 7");
+
+            check("serialized", callSerialized(int.class, 7), "int 7");
+            check("serialized", callSerialized(long.class, 7L), "long 7");
+            check("serialized", callSerialized(double.class, 7.0), "double 7.0");
+            check("serialized", callSerialized(Object.class, 7), "Object 7");
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    private static void check(String protocol, Object result, String expected) throws TestFailed {
+        if (!expected.equals(result)) {
+            throw new TestFailed(protocol + " call for " + expected.split(" ")[0]
+                    + " reached the wrong overload: " + result);
+        }
+    }
+
+    /**
+     * Sends a call to an overload of <code>ping</code> with Java
+     * serialization, over a connection without the hello call.
+     */
+    private Object callSerialized(Class<?> parameterType, Object argument) throws Exception {
+        RMICallInfo call = new RMICallInfo(OverloadServer.class.getName(),
+                OverloadServer.class.getMethod("ping", parameterType), new Object[]{argument});
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(1000);
+            Frames.write(socket.getOutputStream(), null, Frames.encode(call));
+
+            RMIResult reply = (RMIResult) Frames.read(new DataInputStream(socket.getInputStream()),
+                    new CompressionMetrics());
+
+            if (reply.exception != null) {
+                throw reply.exception;
+            }
+
+            return reply.value;
+        }
+    }
+}
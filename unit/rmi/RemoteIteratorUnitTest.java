@@ -0,0 +1,168 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+public class RemoteIteratorUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking streamed remote iterators";
+
+    private final static int COUNT = 10000;
+
+    /**
+     * Remote interface whose methods return streamed sequences.
+     */
+    public interface SequenceServer {
+        RemoteIterator<Integer> range(int count) throws RMIException;
+
+        RemoteIterator<Integer> failing(int count) throws RMIException;
+
+        RemoteIterator<Integer> stalled() throws RMIException;
+    }
+
+    public static class SequenceServerImplementation implements SequenceServer {
+        final Semaphore closed = new Semaphore(0);
+        final CountDownLatch released = new CountDownLatch(1);
+
+        public RemoteIterator<Integer> range(int count) {
+            return RemoteIterator.of(IntStream.range(0, count).boxed().onClose(new Runnable() {
+                public void run() {
+                    closed.release();
+                }
+            }));
+        }
+
+        public RemoteIterator<Integer> stalled() {
+            return RemoteIterator.of(IntStream.range(0, 1).boxed().map(i -> {
+                try {
+                    released.await();
+                } catch (InterruptedException e) {
+                }
+
+                return i;
+            }));
+        }
+
+        public RemoteIterator<Integer> failing(int count) {
+            return RemoteIterator.of(IntStream.range(0, count + 1).boxed().map(i -> {
+                if (i == count) {
+                    throw new IllegalStateException("source failed");
+                }
+
+                return i;
+            }));
+        }
+    }
+
+    private InetSocketAddress address;
+    private SequenceServerImplementation server;
+    private Skeleton<SequenceServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7786);
+        server = new SequenceServerImplementation();
+        skeleton = new Skeleton<SequenceServer>(SequenceServer.class, server, address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Iterates over a sequence spanning many chunks, closes another one
+     * early, and checks that a failure on the server or a chunk that does not
+     * arrive in time ends iteration with a
+     * <code>RemoteIterationException</code>, and that an abandoned iterator
+     * is released on the server.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        SequenceServer stub = Stub.create(SequenceServer.class, address);
+
+        try {
+            RemoteIterator<Integer> range = stub.range(COUNT);
+
+            for (int i = 0; i < COUNT; i++) {
+                if (!range.hasNext() || range.next() != i) {
+                    throw new TestFailed("element " + i + " was not received");
+                }
+            }
+
+            if (range.hasNext()) {
+                throw new TestFailed("sequence has too many elements");
+            }
+
+            try {
+                range.next();
+                throw new TestFailed("iterator did not end");
+            } catch (NoSuchElementException e) {
+            }
+
+            server.closed.drainPermits();
+            RemoteIterator<Integer> partial = stub.range(COUNT);
+            partial.next();
+            partial.close();
+
+            if (!server.closed.tryAcquire(1, TimeUnit.SECONDS)) {
+                throw new TestFailed("closing the iterator did not release the cursor");
+            }
+
+            RemoteIterator<Integer> failing = stub.failing(10);
+
+            try {
+                while (failing.hasNext()) {
+                    failing.next();
+                }
+
+                throw new TestFailed("server failure was not reported");
+            } catch (RemoteIterationException e) {
+                if (!(e.getCause() instanceof IllegalStateException)) {
+                    throw new TestFailed("server failure was reported with unexpected cause", e);
+                }
+            }
+
+            RemoteIterator<Integer> stalled = Stub.withTimeout(stub, 200).stalled();
+
+            try {
+                stalled.hasNext();
+                throw new TestFailed("iterator waited for a chunk that never came");
+            } catch (RemoteIterationException e) {
+            }
+
+            server.released.countDown();
+
+            // abandoned without being closed
+            skeleton.setIdleTimeout(100);
+            stub.range(COUNT);
+
+            if (!server.closed.tryAcquire(1, TimeUnit.SECONDS)) {
+                throw new TestFailed("abandoned iterator was not released");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        server.released.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+}
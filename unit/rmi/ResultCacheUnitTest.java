@@ -0,0 +1,133 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResultCacheUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking cached results of remote methods";
+
+    /**
+     * Remote interface with cacheable lookups.
+     */
+    public interface LookupServer {
+        @Cacheable(maxEntries = 2)
+        String lookup(String key) throws RMIException;
+
+        @Cacheable(ttl = 50)
+        int version(int[] keys) throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>LookupServer</code>.
+     */
+    public interface AsyncLookupServer {
+        @Cacheable(maxEntries = 2)
+        CompletableFuture<String> lookup(String key);
+    }
+
+    public static class LookupServerImplementation implements LookupServer {
+        final AtomicInteger calls = new AtomicInteger();
+
+        public String lookup(String key) {
+            calls.incrementAndGet();
+            return key.toUpperCase();
+        }
+
+        public int version(int[] keys) {
+            return calls.incrementAndGet();
+        }
+    }
+
+    private InetSocketAddress address;
+    private LookupServerImplementation server;
+    private Skeleton<LookupServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7787);
+        server = new LookupServerImplementation();
+        skeleton = new Skeleton<LookupServer>(LookupServer.class, server, address);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that repeated calls are answered from the cache, also through
+     * asynchronous stubs, and that results are evicted and expire.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        LookupServer stub = Stub.create(LookupServer.class, address);
+        AsyncLookupServer asyncStub = Stub.createAsync(AsyncLookupServer.class, address);
+        CacheStatistics statistics = Stub.getCacheStatistics(address);
+
+        try {
+            stub.lookup("a");
+            stub.lookup("a");
+
+            if (!asyncStub.lookup("a").get().equals("A") || server.calls.get() != 1) {
+                throw new TestFailed("repeated call was not answered from the cache");
+            }
+
+            stub.lookup("b");
+            stub.lookup("c");
+
+            if (server.calls.get() != 3 || statistics.getEvictions() != 1) {
+                throw new TestFailed("full cache did not evict a result: " + statistics);
+            }
+
+            // "a" was used since it was cached, so "b" was evicted
+            stub.lookup("a");
+
+            if (server.calls.get() != 3) {
+                throw new TestFailed("recently used result was evicted");
+            }
+
+            int version = stub.version(new int[]{1, 2});
+
+            if (stub.version(new int[]{1, 2}) != version) {
+                throw new TestFailed("call with equal array arguments was not cached");
+            }
+
+            Thread.sleep(100);
+
+            if (stub.version(new int[]{1, 2}) == version || statistics.getExpirations() != 1) {
+                throw new TestFailed("result did not expire: " + statistics);
+            }
+
+            if (statistics.getHits() != 4 || statistics.getMisses() != 5) {
+                throw new TestFailed("unexpected statistics: " + statistics);
+            }
+
+            Stub.clearCache(address);
+            stub.lookup("a");
+
+            if (server.calls.get() != 6) {
+                throw new TestFailed("cleared result was still used");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+}
@@ -0,0 +1,207 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RetryUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking retries of failed calls";
+
+    /**
+     * Remote interface with methods retried in different ways.
+     */
+    public interface RetryServer {
+        @Retry(attempts = 8, backoff = 100, maxBackoff = 1000)
+        int ping() throws RMIException;
+
+        @Retry(attempts = 3, backoff = 10)
+        int update() throws RMIException;
+
+        @Idempotent
+        @Retry(attempts = 3, backoff = 10)
+        int read() throws RMIException;
+    }
+
+    public interface BadRetryServer {
+        @Retry(attempts = 0)
+        int ping() throws RMIException;
+    }
+
+    public static class RetryServerImplementation implements RetryServer {
+        public int ping() {
+            return 1;
+        }
+
+        public int update() {
+            return 2;
+        }
+
+        public int read() {
+            return 3;
+        }
+    }
+
+    /**
+     * Server that answers the hello call of every connection, then reads one
+     * call and closes the connection without answering it.
+     */
+    private static class DroppingServer extends Thread {
+        final ServerSocket socket;
+        final AtomicInteger calls = new AtomicInteger();
+
+        DroppingServer(InetSocketAddress address) throws IOException {
+            this.socket = new ServerSocket();
+            this.socket.bind(address);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try (Socket connection = socket.accept()) {
+                    DataInputStream input = new DataInputStream(
+                            new BufferedInputStream(connection.getInputStream()));
+                    OutputStream output = connection.getOutputStream();
+                    RMICallInfo hello = (RMICallInfo) Frames.read(input, new CompressionMetrics());
+                    RMIResult reply = new RMIResult();
+                    reply.requestId = hello.requestId;
+                    reply.exception = new RMIException("Binary protocol not supported");
+                    Frames.write(output, null, Frames.encode(reply));
+
+                    Frames.read(input, new CompressionMetrics());
+                    calls.incrementAndGet();
+                } catch (Exception e) {
+                    if (socket.isClosed()) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private InetSocketAddress address;
+    private InetSocketAddress droppingAddress;
+    private Skeleton<RetryServer> skeleton;
+    private DroppingServer dropping;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7796);
+        droppingAddress = new InetSocketAddress("localhost", 7797);
+        skeleton = new Skeleton<RetryServer>(RetryServer.class, new RetryServerImplementation(), address);
+
+        try {
+            dropping = new DroppingServer(droppingAddress);
+        } catch (IOException e) {
+            throw new TestFailed("unable to start dropping server", e);
+        }
+
+        dropping.start();
+    }
+
+    /**
+     * Checks that calls failing to connect are retried until the skeleton
+     * starts, and that calls lost after they were sent are retried only for
+     * idempotent methods.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            TokenBudget budget = new TokenBudget(2, 0);
+            budget.earn(0.5);
+
+            if (budget.spend()) {
+                throw new TestFailed("budget allowed a call it had not earned");
+            }
+
+            budget.earn(0.5);
+            budget.earn(5);
+
+            if (!budget.spend() || !budget.spend() || budget.spend()) {
+                throw new TestFailed("budget did not save up to its capacity");
+            }
+
+            try {
+                Stub.create(BadRetryServer.class, address);
+                throw new TestFailed("invalid retry configuration was accepted");
+            } catch (Error e) {
+            }
+
+            Thread starter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(150);
+                        skeleton.start();
+                    } catch (Exception e) {
+                    }
+                }
+            };
+
+            long retried = Stub.getRetriedCalls();
+            starter.start();
+
+            if (Stub.create(RetryServer.class, address).ping() != 1) {
+                throw new TestFailed("Unexpected result from RMI");
+            }
+
+            starter.join();
+
+            if (Stub.getRetriedCalls() == retried) {
+                throw new TestFailed("call made before the skeleton started was not retried");
+            }
+
+            RetryServer stub = Stub.create(RetryServer.class, droppingAddress);
+            retried = Stub.getRetriedCalls();
+
+            try {
+                stub.update();
+                throw new TestFailed("call lost by the server returned");
+            } catch (RMIException e) {
+            }
+
+            if (dropping.calls.get() != 1 || Stub.getRetriedCalls() != retried) {
+                throw new TestFailed("call to a method that is not idempotent was retried after it was sent");
+            }
+
+            try {
+                stub.read();
+                throw new TestFailed("call lost by the server returned");
+            } catch (RMIException e) {
+            }
+
+            if (dropping.calls.get() != 4 || Stub.getRetriedCalls() != retried + 2) {
+                throw new TestFailed("call to an idempotent method was not retried: "
+                        + dropping.calls.get() + " calls received");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+
+        try {
+            dropping.socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+public class SelectorListenerUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking NIO skeleton engine";
+
+    private InetSocketAddress address;
+    private Skeleton<PingPongServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7782);
+        skeleton = new Skeleton<PingPongServer>(
+                PingPongServer.class,
+                new PingPongServerImplementation(),
+                address,
+                Skeleton.Engine.NIO);
+        skeleton.setIdleTimeout(200);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks sequential and pipelined calls, calls larger than the initial
+     * read buffer, and closing of idle connections.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        PingPongServer stub = Stub.create(PingPongServer.class, address);
+        AsyncStubUnitTest.AsyncPingPongServer asyncStub =
+                Stub.createAsync(AsyncStubUnitTest.AsyncPingPongServer.class, address);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                String result = stub.ping(i);
+
+                if (!result.equals("Pong " + i)) {
+                    throw new TestFailed("Unexpected result from RMI: " + result);
+                }
+            }
+
+            CompletableFuture<?>[] results = new CompletableFuture<?>[500];
+
+            for (int i = 0; i < results.length; i++) {
+                results[i] = asyncStub.ping(i);
+            }
+
+            for (int i = 0; i < results.length; i++) {
+                if (!results[i].get().equals("Pong " + i)) {
+                    throw new TestFailed("Unexpected result from RMI: " + results[i].get());
+                }
+            }
+
+            HashMap<String, Integer> large = new HashMap<String, Integer>();
+
+            for (int i = 0; i < 10000; i++) {
+                large.put("key " + i, i);
+            }
+
+            if (!stub.methodThatAcceptsInterface(large).equals("ok")) {
+                throw new TestFailed("Unexpected result from RMI for a large call");
+            }
+
+            if (skeleton.getConnectionCount() == 0
+                    || skeleton.getConnectionCount() > ConnectionPool.DEFAULT_MAX_CONNECTIONS) {
+                throw new TestFailed("unexpected number of open connections");
+            }
+
+            // idle connections are checked for once a second
+            Thread.sleep(1500);
+
+            if (skeleton.getConnectionCount() != 0) {
+                throw new TestFailed("idle connection was not closed");
+            }
+
+            if (!stub.ping(1).equals("Pong 1")) {
+                throw new TestFailed("Unexpected result from RMI after reconnecting");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+}
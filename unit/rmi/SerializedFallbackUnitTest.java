@@ -0,0 +1,166 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SerializedFallbackUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking compatibility with serialized peers";
+
+    /**
+     * Call to <code>ping(7)</code> with request id 3, serialized by the last
+     * release without the binary protocol.
+     */
+    private static final String EARLIER_CALL = "rO0ABXNyAA9ybWkuUk1JQ2FsbEluZm+tBdinZPkywwIABUoACXJlcXVl"
+            + "c3RJZFsABGFyZ3N0ABNbTGphdmEvbGFuZy9PYmplY3Q7TAAJY2xhc3NOYW1ldAASTGphdmEvbGFuZy9TdHJp"
+            + "bmc7TAAIbWV0aG9kSWRxAH4AAkwACm1ldGhvZE5hbWVxAH4AAnhwAAAAAAAAAAN1cgATW0xqYXZhLmxhbmcu"
+            + "T2JqZWN0O5DOWJ8QcylsAgAAeHAAAAABc3IAEWphdmEubGFuZy5JbnRlZ2VyEuKgpPeBhzgCAAFJAAV2YWx1"
+            + "ZXhyABBqYXZhLmxhbmcuTnVtYmVyhqyVHQuU4IsCAAB4cAAAAAd0ABJybWkuUGluZ1BvbmdTZXJ2ZXJ0AAlw"
+            + "aW5nKGludCl0AARwaW5n";
+
+    /**
+     * Result <code>"Pong 7"</code> with request id 3, serialized by the same
+     * release.
+     */
+    private static final String EARLIER_RESULT = "rO0ABXNyAA1ybWkuUk1JUmVzdWx0K+0YNWrjSfICAANKAAlyZXF1ZXN0"
+            + "SWRMAAlleGNlcHRpb250ABVMamF2YS9sYW5nL0V4Y2VwdGlvbjtMAAV2YWx1ZXQAEkxqYXZhL2xhbmcvT2Jq"
+            + "ZWN0O3hwAAAAAAAAAANwdAAGUG9uZyA3";
+
+    /**
+     * Server that behaves like a skeleton of the last release without the
+     * binary protocol: the hello call names a method it does not know, and
+     * every other call is answered with a serialized result.
+     */
+    private static class EarlierSkeleton extends Thread {
+        final ServerSocket socket;
+        final AtomicInteger hellos = new AtomicInteger();
+        final AtomicInteger serializedCalls = new AtomicInteger();
+
+        EarlierSkeleton(InetSocketAddress address) throws IOException {
+            this.socket = new ServerSocket();
+            this.socket.bind(address);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try (Socket connection = socket.accept()) {
+                    serve(connection);
+                } catch (Exception e) {
+                    if (socket.isClosed()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void serve(Socket connection) throws Exception {
+            DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(connection.getInputStream()));
+            OutputStream output = connection.getOutputStream();
+            CompressionMetrics metrics = new CompressionMetrics();
+
+            while (true) {
+                RMICallInfo call = (RMICallInfo) Frames.read(input, metrics);
+                RMIResult result = new RMIResult();
+                result.requestId = call.requestId;
+
+                if (Frames.HELLO_METHOD_ID.equals(call.methodId)) {
+                    hellos.incrementAndGet();
+                    result.exception = new RMIException("Method requested by remote client does not exist");
+                } else {
+                    if (!call.binary) {
+                        serializedCalls.incrementAndGet();
+                    }
+
+                    result.value = "Pong " + call.args[0];
+                }
+
+                Frames.write(output, null, Frames.encode(result));
+            }
+        }
+    }
+
+    private InetSocketAddress address;
+    private EarlierSkeleton earlier;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7800);
+
+        try {
+            earlier = new EarlierSkeleton(address);
+        } catch (IOException e) {
+            throw new TestFailed("unable to start earlier skeleton", e);
+        }
+
+        earlier.start();
+    }
+
+    /**
+     * Checks that calls and results serialized by an earlier release are
+     * still understood, and that a stub falls back to serialization for a
+     * skeleton that does not answer the hello call.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        try {
+            byte[] bytes = Base64.getDecoder().decode(EARLIER_CALL);
+            RMICallInfo call = (RMICallInfo) Frames.decodeSerialized(bytes, 0, bytes.length);
+
+            if (call.requestId != 3 || !"ping(int)".equals(call.methodId)
+                    || !Arrays.equals(call.args, new Object[]{7})) {
+                throw new TestFailed("call from an earlier release was not decoded");
+            }
+
+            bytes = Base64.getDecoder().decode(EARLIER_RESULT);
+            RMIResult result = (RMIResult) Frames.decodeSerialized(bytes, 0, bytes.length);
+
+            if (result.requestId != 3 || !"Pong 7".equals(result.value)) {
+                throw new TestFailed("result from an earlier release was not decoded");
+            }
+
+            PingPongServer stub = Stub.create(PingPongServer.class, address);
+
+            for (int i = 0; i < 3; i++) {
+                if (!stub.ping(i).equals("Pong " + i)) {
+                    throw new TestFailed("Unexpected result from RMI");
+                }
+            }
+
+            if (earlier.hellos.get() != 1 || earlier.serializedCalls.get() != 3) {
+                throw new TestFailed("stub did not fall back to serialization: "
+                        + earlier.hellos.get() + " hello calls, "
+                        + earlier.serializedCalls.get() + " serialized calls");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        try {
+            earlier.socket.close();
+        } catch (IOException e) {
+        }
+    }
+}
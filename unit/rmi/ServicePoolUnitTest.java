@@ -0,0 +1,165 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ServicePoolUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking skeleton service limits";
+
+    /**
+     * Remote interface whose method blocks until the test releases it.
+     */
+    public interface BlockingServer {
+        String block() throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>BlockingServer</code>.
+     */
+    public interface AsyncBlockingServer {
+        CompletableFuture<String> block();
+    }
+
+    public static class BlockingServerImplementation implements BlockingServer {
+        final CountDownLatch released = new CountDownLatch(1);
+        final AtomicInteger entered = new AtomicInteger();
+
+        public String block() throws RMIException {
+            entered.incrementAndGet();
+
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+
+            return "done";
+        }
+    }
+
+    private InetSocketAddress address;
+    private BlockingServerImplementation server;
+    private Skeleton<BlockingServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7783);
+        server = new BlockingServerImplementation();
+        skeleton = new Skeleton<BlockingServer>(BlockingServer.class, server, address);
+        skeleton.setServiceLimits(1, 1);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Fills the only service thread and the queue, and checks that the next
+     * call is rejected right away while the others complete later, and that
+     * a new connection still agrees on the binary protocol.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AsyncBlockingServer stub = Stub.createAsync(AsyncBlockingServer.class, address);
+
+        try {
+            CompletableFuture<String> executed = stub.block();
+            waitFor(1, 0);
+
+            CompletableFuture<String> queued = stub.block();
+            waitFor(1, 1);
+
+            CompletableFuture<String> rejected = stub.block();
+
+            try {
+                rejected.get();
+                throw new TestFailed("call beyond the queue capacity was not rejected");
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof RMIException)) {
+                    throw new TestFailed("rejected call failed with unexpected exception", e);
+                }
+            }
+
+            if (skeleton.getRejectedCalls() != 1) {
+                throw new TestFailed("rejected call was not counted");
+            }
+
+            checkHello();
+
+            server.released.countDown();
+
+            if (!executed.get().equals("done") || !queued.get().equals("done")) {
+                throw new TestFailed("Unexpected result from RMI");
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("this should not throw exceptions", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        server.released.countDown();
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /**
+     * Sends the hello call of a new connection to the overloaded skeleton.
+     */
+    private void checkHello() throws Exception {
+        RMICallInfo hello = new RMICallInfo(null, Frames.HELLO_METHOD_ID,
+                new Object[]{BinaryCodec.VERSION});
+        hello.methodId = Frames.HELLO_METHOD_ID;
+
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(1000);
+            Frames.write(socket.getOutputStream(), null, Frames.encode(hello));
+
+            RMIResult reply = (RMIResult) Frames.read(new DataInputStream(socket.getInputStream()),
+                    new CompressionMetrics());
+
+            if (!Integer.valueOf(BinaryCodec.VERSION).equals(reply.value)) {
+                throw new TestFailed("overloaded skeleton did not answer the hello call",
+                        reply.exception);
+            }
+        }
+
+        if (skeleton.getRejectedCalls() != 1) {
+            throw new TestFailed("hello call was counted as rejected");
+        }
+    }
+
+    /**
+     * Waits until the skeleton reports the given numbers of active and queued
+     * calls, and the active calls have entered the server.
+     */
+    private void waitFor(int active, int queued) throws TestFailed, InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (skeleton.getActiveCalls() == active && server.entered.get() == active
+                    && skeleton.getQueuedCalls() == queued) {
+                return;
+            }
+
+            Thread.sleep(10);
+        }
+
+        throw new TestFailed("expected " + active + " active and " + queued + " queued calls");
+    }
+}
@@ -0,0 +1,112 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+
+public class SkeletonUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking skeleton keep-alive connections";
+
+    private InetSocketAddress address;
+    private Skeleton<PingPongServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7780);
+        skeleton = new Skeleton<PingPongServer>(
+                PingPongServer.class,
+                new PingPongServerImplementation(),
+                address);
+        skeleton.setIdleTimeout(200);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Checks that one connection serves many calls, and that it is closed
+     * once it stays idle for longer than the idle timeout. Also checks that
+     * arguments of the wrong type are not reported as exceptions of the
+     * server method.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        PingPongServer stub = Stub.create(PingPongServer.class, address);
+
+        ping(stub, 1000);
+
+        if (skeleton.getConnectionCount() != 1) {
+            throw new TestFailed("calls were not served over a single connection");
+        }
+
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException e) {
+            throw new TestFailed("interrupted", e);
+        }
+
+        if (skeleton.getConnectionCount() != 0) {
+            throw new TestFailed("idle connection was not closed");
+        }
+
+        ping(stub, 1);
+        checkArguments();
+    }
+
+    private void checkArguments() throws TestFailed {
+        MethodInvoker invoker;
+
+        try {
+            invoker = new MethodInvoker(PingPongServer.class.getMethod("ping", int.class),
+                    new PingPongServerImplementation());
+        } catch (NoSuchMethodException e) {
+            throw new TestFailed("unable to find remote method", e);
+        }
+
+        Object[][] invalid = {null, {"1"}, {(Object) null}, {1, 2}};
+
+        for (Object[] args : invalid) {
+            try {
+                invoker.invoke(args);
+                throw new TestFailed("invalid arguments were accepted");
+            } catch (IllegalArgumentException e) {
+            } catch (InvocationTargetException e) {
+                throw new TestFailed("invalid arguments were reported as a server exception", e);
+            } catch (IllegalAccessException e) {
+                throw new TestFailed("unable to invoke remote method", e);
+            }
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    private void ping(PingPongServer stub, int times) throws TestFailed {
+        for (int i = 0; i < times; i++) {
+            String result;
+
+            try {
+                result = stub.ping(i);
+            } catch (Throwable e) {
+                throw new TestFailed("this should not throw exceptions", e);
+            }
+
+            if (!result.equals("Pong " + i)) {
+                throw new TestFailed("Unexpected result from RMI: " + result);
+            }
+        }
+    }
+}
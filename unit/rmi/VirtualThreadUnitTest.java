@@ -0,0 +1,127 @@
+package rmi;
+
+import test.Test;
+import test.TestFailed;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadUnitTest extends Test {
+    /**
+     * Test notice.
+     */
+    public static final String notice = "checking virtual-thread skeletons";
+
+    /**
+     * Number of calls that must all be blocked in the server at once.
+     */
+    private static final int PARTIES = 200;
+
+    /**
+     * Remote interface whose method blocks until enough calls arrived.
+     */
+    public interface RendezvousServer {
+        boolean meet() throws RMIException;
+    }
+
+    /**
+     * Asynchronous companion of <code>RendezvousServer</code>.
+     */
+    public interface AsyncRendezvousServer {
+        CompletableFuture<Boolean> meet();
+    }
+
+    public static class RendezvousServerImplementation implements RendezvousServer {
+        private final CountDownLatch arrived = new CountDownLatch(PARTIES);
+
+        /**
+         * Waits for all parties, returning whether the call ran on a virtual
+         * thread.
+         */
+        public boolean meet() throws RMIException {
+            arrived.countDown();
+
+            try {
+                if (!arrived.await(2, TimeUnit.SECONDS)) {
+                    throw new RMIException("not all parties arrived");
+                }
+            } catch (InterruptedException e) {
+                throw new RMIException(e);
+            }
+
+            return isVirtual(Thread.currentThread());
+        }
+    }
+
+    private InetSocketAddress address;
+    private Skeleton<RendezvousServer> skeleton;
+
+    @Override
+    protected void initialize() throws TestFailed {
+        address = new InetSocketAddress("localhost", 7802);
+        skeleton = new Skeleton<RendezvousServer>(RendezvousServer.class,
+                new RendezvousServerImplementation(), address);
+        skeleton.setVirtualThreads(true);
+
+        try {
+            skeleton.start();
+        } catch (RMIException e) {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /**
+     * Blocks many calls in the server at once, and checks that they run on
+     * virtual threads when the runtime has them, and on platform threads
+     * otherwise.
+     *
+     * @throws TestFailed
+     */
+    @Override
+    protected void perform() throws TestFailed {
+        AsyncRendezvousServer stub = Stub.createAsync(AsyncRendezvousServer.class, address);
+        boolean supported = RMIHelper.virtualThreadFactory() != null;
+        List<CompletableFuture<Boolean>> results = new ArrayList<CompletableFuture<Boolean>>();
+
+        for (int i = 0; i < PARTIES; i++) {
+            results.add(stub.meet());
+        }
+
+        try {
+            for (CompletableFuture<Boolean> result : results) {
+                if (result.get() != supported) {
+                    throw new TestFailed(supported ? "call did not run on a virtual thread"
+                            : "call did not fall back to a platform thread");
+                }
+            }
+        } catch (TestFailed e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new TestFailed("blocked calls did not all run at once", e);
+        }
+    }
+
+    @Override
+    protected void clean() {
+        skeleton.stop();
+        skeleton = null;
+    }
+
+    /**
+     * Checks whether a thread is virtual, on runtimes that know virtual
+     * threads.
+     */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            Method method = Thread.class.getMethod("isVirtual");
+            return (Boolean) method.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+}